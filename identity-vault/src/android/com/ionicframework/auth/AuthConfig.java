@@ -9,11 +9,15 @@ public class AuthConfig {
 
     final public VaultDescriptor descriptor;
     final public VaultAppConfig appConfig;
+    // the vault of the same user whose unlocking unlocks this one too, see IdentityVault.unlockFromGroup
+    final public VaultDescriptor unlockGroup;
 
     AuthConfig(JSONObject config, Activity activity, VaultDescriptor descriptor) {
         VaultAppConfig.configure(config, activity);
         appConfig = VaultAppConfig.getInstance();
         this.descriptor = descriptor;
+        String group = config.optString("androidUnlockGroup", null);
+        unlockGroup = group == null || group.equals(descriptor.vaultId) ? null : new VaultDescriptor(descriptor.username, group);
     }
 
     public JSONObject toJSONObject() throws VaultError {
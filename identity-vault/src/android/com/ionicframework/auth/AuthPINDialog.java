@@ -53,16 +53,17 @@ public class AuthPINDialog {
         final String button1 = getStringFromID("IV_cancel");
         final String button2 = getStringFromID("IV_ok");
 
-        final EditText promptInput =  new EditText(activity);
-        promptInput.setInputType(InputType.TYPE_CLASS_NUMBER);
-        promptInput.setGravity(Gravity.CENTER);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            promptInput.setLetterSpacing((float) 1.8);
-        }
-        promptInput.setTransformationMethod(PasswordTransformationMethod.getInstance());
-
         Runnable runnable = new Runnable() {
             public void run() {
+                // NOTE: views must be created on the UI thread, display() may be called from a worker
+                final EditText promptInput =  new EditText(activity);
+                promptInput.setInputType(InputType.TYPE_CLASS_NUMBER);
+                promptInput.setGravity(Gravity.CENTER);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    promptInput.setLetterSpacing((float) 1.8);
+                }
+                promptInput.setTransformationMethod(PasswordTransformationMethod.getInstance());
+
                 AlertDialog.Builder dlg = new AlertDialog.Builder(activity);
                 if (verifyOnly) {
                     state = STATE_VERIFY_PIN;
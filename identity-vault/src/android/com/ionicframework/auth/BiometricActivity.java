@@ -11,7 +11,6 @@ import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.biometric.BiometricConstants;
 import androidx.biometric.BiometricPrompt;
 import androidx.core.content.ContextCompat;
 
@@ -60,15 +59,7 @@ public class BiometricActivity extends AppCompatActivity {
         Executor executor = handler::post;
         BiometricPrompt biometricPrompt = new BiometricPrompt(this, executor, mAuthenticationCallback);
         VaultAppConfig config = VaultAppConfig.getInstance();
-        BiometricPrompt.PromptInfo.Builder builder = new BiometricPrompt.PromptInfo.Builder()
-            .setTitle(config.promptTitle)
-            .setSubtitle(config.promptSubtitle)
-            .setDescription(config.promptDescription)
-            .setDeviceCredentialAllowed(config.allowSystemPinFallback);
-
-        if (!config.allowSystemPinFallback) {
-            builder.setNegativeButtonText(config.promptNegativeButtonText);
-        }
+        BiometricPrompt.PromptInfo.Builder builder = VaultBiometricPrompt.newPromptInfoBuilder(config);
 
         if (config.allowSystemPinFallback && mIsAndroidQ) { // needs Q workaround
             builder
@@ -83,26 +74,7 @@ public class BiometricActivity extends AppCompatActivity {
     }
 
     private void onPromptError(int errorCode, @NonNull CharSequence errString) {
-        switch (errorCode)
-        {
-            case BiometricPrompt.ERROR_USER_CANCELED:
-            case BiometricPrompt.ERROR_CANCELED:
-            case BiometricPrompt.ERROR_NEGATIVE_BUTTON:
-                finishWithError(new UserCanceledAuthError());
-                break;
-            case BiometricPrompt.ERROR_LOCKOUT:
-            case BiometricPrompt.ERROR_LOCKOUT_PERMANENT:
-                finishWithError(new TooManyFailedAttemptsError());
-                break;
-            case BiometricConstants.ERROR_HW_NOT_PRESENT:
-                finishWithError(new SecurityNotAvailableError());
-                break;
-            case BiometricPrompt.ERROR_NO_BIOMETRICS:
-            case BiometricPrompt.ERROR_NO_DEVICE_CREDENTIAL:
-                finishWithError(new BiometricsNotEnabled());
-            default:
-                finishWithError(new VaultError());
-        }
+        finishWithError(VaultBiometricPrompt.getError(errorCode));
     }
 
     private void onPromptSuccess(@NonNull BiometricPrompt.AuthenticationResult result) {
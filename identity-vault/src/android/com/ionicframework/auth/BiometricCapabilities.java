@@ -0,0 +1,144 @@
+package com.ionicframework.auth;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.fingerprint.FingerprintManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.biometric.BiometricManager;
+
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Cached results of the biometric capability probes. Each probe is a binder call into the
+    keystore, BiometricManager, FingerprintManager or PackageManager, so they are made once and kept
+    until invalidate() is called. That happens whenever the app comes back to the foreground (the
+    user may have changed enrollments in settings) and whenever the vault notices enrollments changed.
+    The available hardware can't change while the process runs and is never re-probed.
+ */
+public class BiometricCapabilities {
+    final private static String TAG = "BiometricCapabilities";
+    final private static String FINGER = "fingerprint";
+    final private static String IRIS = "iris";
+    final private static String FACE = "face";
+
+    final private static Object sLock = new Object();
+    private static volatile BiometricCapabilities sCached;
+    private static volatile List<String> sHardware;
+    private static int sGeneration = 0;
+
+    final public boolean available;
+    final public boolean supported;
+    final public String type;
+
+    private BiometricCapabilities(boolean available, boolean supported, String type) {
+        this.available = available;
+        this.supported = supported;
+        this.type = type;
+    }
+
+    public static BiometricCapabilities get(Context context) {
+        BiometricCapabilities capabilities = sCached;
+        if (capabilities != null) {
+            return capabilities;
+        }
+        int generation;
+        synchronized (sLock) {
+            generation = sGeneration;
+        }
+        capabilities = probe(context.getApplicationContext());
+        synchronized (sLock) {
+            // an invalidation while probing means the result may already be stale
+            if (generation == sGeneration) {
+                sCached = capabilities;
+            }
+        }
+        return capabilities;
+    }
+
+    public static void invalidate() {
+        synchronized (sLock) {
+            sGeneration++;
+            sCached = null;
+        }
+    }
+
+    public static JSONArray getAvailableHardware(Context context) {
+        List<String> hardware = sHardware;
+        if (hardware == null) {
+            hardware = probeHardware(context.getApplicationContext().getPackageManager());
+            sHardware = hardware;
+        }
+        return new JSONArray(hardware);
+    }
+
+    private static BiometricCapabilities probe(Context context) {
+        boolean supported = false;
+        FingerprintManager fingerprintManager = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            fingerprintManager = (FingerprintManager) context.getSystemService(Context.FINGERPRINT_SERVICE);
+            supported = fingerprintManager != null && fingerprintManager.isHardwareDetected();
+        }
+
+        boolean available = isAvailable(context);
+        String type = "none";
+        if (available) {
+            type = supported && fingerprintManager.hasEnrolledFingerprints() ? "touchID" : "faceID";
+        }
+        return new BiometricCapabilities(available, supported, type);
+    }
+
+    private static boolean isAvailable(Context context) {
+        if (!VaultFactory.canUseKeychainAuthentication(context)) {
+            Log.d(TAG, "Keychain Auth Unavailable: Biometrics Unavailable");
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            BiometricManager biometricManager = BiometricManager.from(context);
+            // Device supports fingerprint authentication hardware & user has enrolled fingerprints
+            return biometricManager != null && biometricManager.canAuthenticate() == BiometricManager.BIOMETRIC_SUCCESS;
+        }
+        Log.d(TAG, "Android Version less than M: Biometrics Unavailable");
+        return false;
+    }
+
+    private static List<String> probeHardware(PackageManager packageManager) {
+        List<String> hardware = new ArrayList<>();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            if (packageManager.hasSystemFeature(PackageManager.FEATURE_FINGERPRINT))
+                hardware.add(FINGER);
+        }
+
+        if (packageManager.hasSystemFeature(PackageManager.FEATURE_IRIS)) {
+            hardware.add(IRIS);
+        } else {
+            // check if Samsung's Iris service is present
+            try {
+                packageManager.getPackageInfo("com.samsung.android.server.iris", PackageManager.GET_META_DATA);
+                hardware.add(IRIS);
+            } catch (PackageManager.NameNotFoundException e) {
+                // do nada
+            }
+        }
+
+        if (packageManager.hasSystemFeature(PackageManager.FEATURE_FACE)) {
+            hardware.add(FACE);
+        } else {
+            // check if Samsung's Face service is present
+            try {
+                packageManager.getPackageInfo("com.samsung.android.bio.face.service", PackageManager.GET_META_DATA);
+                hardware.add(FACE);
+            } catch (PackageManager.NameNotFoundException e) {
+                // do nada
+            }
+        }
+
+        return hardware;
+    }
+}
@@ -0,0 +1,143 @@
+package com.ionicframework.auth;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.security.keystore.KeyProperties;
+
+import com.bottlerocketstudios.vault.EncryptionConstants;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+    Wraps a vault's data key with a Keystore key pair whose private key can only be used once a
+    biometric prompt authorizes it, so the prompt's CryptoObject unwraps the data key itself. The
+    public key needs no authentication, the data key is wrapped whenever it's stored without asking
+    the user. A wrapped key is a version byte and the RSA-OAEP encrypted key.
+
+    The Keystore invalidates the key pair when biometrics are enrolled, getUnwrapCipher() reports
+    that with KeyPermanentlyInvalidatedException.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+class BiometricKeyWrap {
+    final private static String KEY_ALIAS = "_ionicAuthBiometricKey_%s";
+    final private static String CIPHER_TRANSFORM = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+    // the Keystore only does MGF1 with SHA-1, the software provider has to be told to match
+    final private static OAEPParameterSpec OAEP_SPEC = new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA1, PSource.PSpecified.DEFAULT);
+    final private static byte VERSION = 1;
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * Wrap the data key with the vault's key pair, creating the pair if it doesn't have one
+     */
+    static byte[] wrap(String descriptor, SecretKey key) throws VaultError {
+        byte[] encodedKey = key.getEncoded();
+        try {
+            String alias = getAlias(descriptor);
+            KeyStore keyStore = VaultCrypto.getAndroidKeyStore();
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (certificate == null) {
+                createKeyPair(alias);
+                certificate = keyStore.getCertificate(alias);
+            }
+            // a copy outside the Keystore, its own public keys don't take the OAEP parameters
+            PublicKey keystoreKey = certificate.getPublicKey();
+            PublicKey publicKey = KeyFactory.getInstance(keystoreKey.getAlgorithm()).generatePublic(new X509EncodedKeySpec(keystoreKey.getEncoded()));
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.ENCRYPT_MODE, publicKey, OAEP_SPEC);
+            byte[] encrypted = cipher.doFinal(encodedKey);
+            byte[] wrapped = new byte[1 + encrypted.length];
+            wrapped[0] = VERSION;
+            System.arraycopy(encrypted, 0, wrapped, 1, encrypted.length);
+            return wrapped;
+        } catch (Exception e) {
+            throw new VaultError("Error wrapping vault key for biometrics");
+        } finally {
+            Arrays.fill(encodedKey, (byte) 0);
+        }
+    }
+
+    /**
+     * A cipher for the prompt's CryptoObject, it's only initialized here and outlives the call so it
+     * isn't one of VaultCrypto's
+     *
+     * @return null if the vault has no key pair
+     */
+    static Cipher getUnwrapCipher(String descriptor) throws KeyPermanentlyInvalidatedException, VaultError {
+        try {
+            Key key = VaultCrypto.getAndroidKeyStore().getKey(getAlias(descriptor), null);
+            if (!(key instanceof PrivateKey)) {
+                return null;
+            }
+            Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORM);
+            cipher.init(Cipher.DECRYPT_MODE, key, OAEP_SPEC);
+            return cipher;
+        } catch (KeyPermanentlyInvalidatedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new VaultError(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @param cipher the cipher from getUnwrapCipher(), once the prompt authorized it
+     * @return null if the key couldn't be unwrapped
+     */
+    static SecretKey unwrap(Cipher cipher, byte[] wrapped) {
+        if (wrapped.length <= 1 || wrapped[0] != VERSION) {
+            return null;
+        }
+        byte[] encodedKey = null;
+        try {
+            encodedKey = cipher.doFinal(wrapped, 1, wrapped.length - 1);
+            return new SecretKeySpec(encodedKey, EncryptionConstants.AES_CIPHER);
+        } catch (GeneralSecurityException | IllegalStateException e) {
+            return null;
+        } finally {
+            if (encodedKey != null) {
+                Arrays.fill(encodedKey, (byte) 0);
+            }
+        }
+    }
+
+    static void deleteKeyPair(String descriptor) {
+        try {
+            VaultCrypto.getAndroidKeyStore().deleteEntry(getAlias(descriptor));
+        } catch (Exception e) {
+            // nothing to delete
+        }
+    }
+
+    private static void createKeyPair(String alias) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_RSA, EncryptionConstants.ANDROID_KEY_STORE);
+        generator.initialize(new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_DECRYPT)
+                .setDigests(KeyProperties.DIGEST_SHA256)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_RSA_OAEP)
+                .setUserAuthenticationRequired(true)
+                .build());
+        generator.generateKeyPair();
+    }
+
+    private static String getAlias(String descriptor) {
+        return String.format(KEY_ALIAS, descriptor);
+    }
+}
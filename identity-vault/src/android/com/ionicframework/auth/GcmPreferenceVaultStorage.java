@@ -0,0 +1,145 @@
+package com.ionicframework.auth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import com.bottlerocketstudios.vault.keys.storage.KeyStorage;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/*
+    Keeps records in the vault's SharedPreferences file like PreferenceVaultStorage, but encrypts them
+    itself with AES-GCM instead of going through the bottlerocket vault's CBC encryption. A record is
+    encrypted and authenticated in one pass, bound to its name, and Base64 encoded once.
+
+    A stored record is "~" followed by Base64(version, nonce, ciphertext and tag). Base64 never starts
+    with "~", so records the bottlerocket vault wrote are told apart and still read through it, and
+    they're rewritten in this format the next time they're stored.
+ */
+class GcmPreferenceVaultStorage extends PreferenceVaultStorage {
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+    final private static String RECORD_PREFIX = "~";
+    final private static byte VERSION = 1;
+    final private static String CIPHER_TRANSFORM = "AES/GCM/NoPadding";
+    final private static int IV_LENGTH = 12;
+    final private static int TAG_LENGTH = 16;
+
+    final private SharedPreferences mPreferences;
+    final private Context mContext;
+    final private KeyStorage mKeyStorage;
+    final private SecureRandom mRandom = new SecureRandom();
+
+    /**
+     * @param vault       the bottlerocket vault, used to read records it wrote
+     * @param preferences the preferences file underneath it
+     */
+    GcmPreferenceVaultStorage(SharedPreferences vault, SharedPreferences preferences, Context context, KeyStorage keyStorage) {
+        super(vault);
+        mPreferences = preferences;
+        mContext = context;
+        mKeyStorage = keyStorage;
+    }
+
+    @Override
+    public String getString(String name) {
+        String record = mPreferences.getString(name, null);
+        if (record == null) {
+            return null;
+        }
+        if (!record.startsWith(RECORD_PREFIX)) {
+            return super.getString(name);
+        }
+        return new String(decrypt(name, record), UTF_8);
+    }
+
+    @Override
+    public byte[] getBytes(String name) {
+        String record = mPreferences.getString(name, null);
+        if (record == null) {
+            return null;
+        }
+        if (!record.startsWith(RECORD_PREFIX)) {
+            return super.getBytes(name);
+        }
+        return decrypt(name, record);
+    }
+
+    @Override
+    public VaultStorage.Editor edit() {
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        return new VaultStorage.Editor() {
+            @Override
+            public VaultStorage.Editor putString(String name, String value) {
+                editor.putString(name, value == null ? null : encrypt(name, value.getBytes(UTF_8)));
+                return this;
+            }
+
+            @Override
+            public VaultStorage.Editor putBytes(String name, byte[] value) {
+                editor.putString(name, value == null ? null : encrypt(name, value));
+                return this;
+            }
+
+            @Override
+            public VaultStorage.Editor remove(String name) {
+                editor.remove(name);
+                return this;
+            }
+
+            @Override
+            public void apply() {
+                editor.apply();
+            }
+
+            @Override
+            public boolean commit() {
+                return editor.commit();
+            }
+        };
+    }
+
+    private String encrypt(String name, byte[] plainText) {
+        try {
+            byte[] record = new byte[1 + IV_LENGTH + plainText.length + TAG_LENGTH];
+            record[0] = VERSION;
+            byte[] iv = new byte[IV_LENGTH];
+            mRandom.nextBytes(iv);
+            System.arraycopy(iv, 0, record, 1, IV_LENGTH);
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.ENCRYPT_MODE, loadKey(), new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(name.getBytes(UTF_8));
+            cipher.doFinal(plainText, 0, plainText.length, record, 1 + IV_LENGTH);
+            return RECORD_PREFIX + Base64.encodeToString(record, Base64.NO_WRAP);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error encrypting vault record", e);
+        }
+    }
+
+    private byte[] decrypt(String name, String stored) {
+        try {
+            byte[] record = Base64.decode(stored.substring(RECORD_PREFIX.length()), Base64.NO_WRAP);
+            if (record.length < 1 + IV_LENGTH + TAG_LENGTH || record[0] != VERSION) {
+                throw new IllegalStateException("Unknown vault record format");
+            }
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.DECRYPT_MODE, loadKey(), new GCMParameterSpec(TAG_LENGTH * 8, record, 1, IV_LENGTH));
+            cipher.updateAAD(name.getBytes(UTF_8));
+            return cipher.doFinal(record, 1 + IV_LENGTH, record.length - 1 - IV_LENGTH);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalStateException("Error decrypting vault record", e);
+        }
+    }
+
+    private SecretKey loadKey() throws GeneralSecurityException {
+        SecretKey key = mKeyStorage.loadKey(mContext);
+        if (key == null) {
+            throw new GeneralSecurityException("No key available");
+        }
+        return key;
+    }
+}
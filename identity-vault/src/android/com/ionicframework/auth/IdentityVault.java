@@ -8,12 +8,7 @@ import androidx.lifecycle.OnLifecycleEvent;
 import androidx.lifecycle.ProcessLifecycleOwner;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.hardware.fingerprint.FingerprintManager;
-import android.os.Build;
-import androidx.biometric.BiometricManager;
-
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.apache.cordova.CallbackContext;
@@ -22,9 +17,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
 
 public class IdentityVault implements LifecycleObserver {
 
@@ -34,10 +35,20 @@ public class IdentityVault implements LifecycleObserver {
     public final Activity activity;
     private final VaultDescriptor descriptor;
     public AuthConfig config;
-    private Date backgroundStart;
+    // SystemClock.elapsedRealtime() when the app moved to the background, -1 while in the foreground
+    private volatile long mBackgroundStart = -1;
+    private volatile long mLastActivity;
+    // pending lock deadlines on the VaultScheduler
+    private final Object mDeadlines = new Object();
+    private ScheduledFuture<?> mBackgroundLock;
+    private ScheduledFuture<?> mIdleLock;
     final private String TAG = "IdentityVault";
-    private HashMap<String, CallbackContext> handlers = new HashMap<>();
-    private static HashMap<String, IdentityVault> vaultRegistry = new HashMap<>();
+    private final CopyOnWriteArrayList<CallbackContext> handlers = new CopyOnWriteArrayList<>();
+    // data of the last config event, a config event that wouldn't change it isn't sent
+    private String mLastConfigEvent;
+    private static final ConcurrentHashMap<String, IdentityVault> vaultRegistry = new ConcurrentHashMap<>();
+    // readers of the vault share it, anything that changes the vault or its lock state holds it exclusively
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
 
     /**
      * Should this class run the timer in the lifecycle hooks that locks the vault with wasTimeout: true after five seconds of the activity being in the background.
@@ -56,9 +67,24 @@ public class IdentityVault implements LifecycleObserver {
     public static IdentityVault getFromRegistryOrCreate(Activity activity, JSONObject options) throws VaultError {
         VaultDescriptor descriptor = new VaultDescriptor(options);
         IdentityVault vault = vaultRegistry.get(descriptor.getUniqueId());
-        if (vault == null) {
-            vault = new IdentityVault(activity, options);
-            vaultRegistry.put(descriptor.getUniqueId(), vault);
+        if (vault != null) {
+            return vault;
+        }
+        boolean created = false;
+        synchronized (vaultRegistry) {
+            vault = vaultRegistry.get(descriptor.getUniqueId());
+            if (vault == null) {
+                vault = new IdentityVault(activity, options);
+                vaultRegistry.put(descriptor.getUniqueId(), vault);
+                created = true;
+                if (vault.config.appConfig.prefetch) {
+                    VaultPrefetcher.remember(activity, descriptor, options);
+                }
+            }
+        }
+        if (created) {
+            // its group or members may have been unlocked before it was set up
+            vault.syncUnlockGroup();
         }
         return vault;
     }
@@ -68,144 +94,245 @@ public class IdentityVault implements LifecycleObserver {
     }
 
     public boolean isBiometricsAvailable() {
-        if (!VaultFactory.canUseKeychainAuthentication(context)) {
-            Log.d(TAG, "Keychain Auth Unavailable: Biometrics Unavailable");
-            return false;
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            BiometricManager biometricManager = BiometricManager.from(this.activity.getApplicationContext());
-            // Device supports fingerprint authentication hardware & user has enrolled fingerprints
-            return biometricManager != null && biometricManager.canAuthenticate() == BiometricManager.BIOMETRIC_SUCCESS;
-        }
-        Log.d(TAG, "Android Version less than M: Biometrics Unavailable");
-        return false;
+        return BiometricCapabilities.get(context).available;
     }
 
     public String getBiometricsType() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && isBiometricsAvailable()) {
-            FingerprintManager fingerprintManager = (FingerprintManager) this.activity.getSystemService(Context.FINGERPRINT_SERVICE);
-            if (fingerprintManager != null && fingerprintManager.isHardwareDetected() && fingerprintManager.hasEnrolledFingerprints()) {
-                return "touchID";
-            } else {
-                return "faceID";
-            }
-        }
-        return "none";
+        return BiometricCapabilities.get(context).type;
     }
 
     public JSONArray getAvailableHardware() {
-        final String FINGER = "fingerprint";
-        final String IRIS = "iris";
-        final String FACE = "face";
-
-        JSONArray hardware = new JSONArray();
-        PackageManager packageManager = this.activity.getPackageManager();
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            if (packageManager.hasSystemFeature(PackageManager.FEATURE_FINGERPRINT))
-                hardware.put(FINGER);
-        }
+        return BiometricCapabilities.getAvailableHardware(context);
+    }
 
-        if (packageManager.hasSystemFeature(PackageManager.FEATURE_IRIS)) {
-            hardware.put(IRIS);
-        } else {
-            // check if Samsung's Iris service is present
-            try {
-                PackageInfo irisSamsung = packageManager.getPackageInfo("com.samsung.android.server.iris", PackageManager.GET_META_DATA);
-                hardware.put(IRIS);
-            } catch (PackageManager.NameNotFoundException e) {
-                // do nada
-            }
+    public void clear() throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            mVault.clear();
+        } finally {
+            mLock.writeLock().unlock();
         }
+    }
 
-        if (packageManager.hasSystemFeature(PackageManager.FEATURE_FACE)) {
-            hardware.put(FACE);
-        } else {
-            // check if Samsung's Face service is present
+    public JSONObject getConfig() throws VaultError {
+        mLock.readLock().lock();
+        try {
+            JSONObject conf = config.toJSONObject();
             try {
-                PackageInfo faceSamsung = packageManager.getPackageInfo("com.samsung.android.bio.face.service", PackageManager.GET_META_DATA);
-                hardware.put(FACE);
-            } catch (PackageManager.NameNotFoundException e) {
-                // do nada
+                conf.put("isBiometricsEnabled", isBiometricsEnabled());
+                conf.put("isPasscodeEnabled", isPasscodeEnabled());
+                conf.put("isPasscodeSetupNeeded", isPasscodeSetupNeeded());
+                conf.put("isSecureStorageModeEnabled", isSecureStorageModeEnabled());
+            } catch (JSONException e) {
+                throw new VaultError("Error converting config to JSON");
             }
+            return conf;
+        } finally {
+            mLock.readLock().unlock();
         }
-
-        return hardware;
-    }
-
-    public void clear() throws VaultError {
-        mVault.clear();
     }
 
-    public JSONObject getConfig() throws VaultError {
-        JSONObject conf = config.toJSONObject();
+    /**
+     * Get the vault ready for its first reads, see IonicCombinedVault.prefetch
+     */
+    public void prefetch() throws VaultError {
+        mLock.readLock().lock();
         try {
-            conf.put("isBiometricsEnabled", isBiometricsEnabled());
-            conf.put("isPasscodeEnabled", isPasscodeEnabled());
-            conf.put("isPasscodeSetupNeeded", isPasscodeSetupNeeded());
-            conf.put("isSecureStorageModeEnabled", isSecureStorageModeEnabled());
-        } catch (JSONException e) {
-            throw new VaultError("Error converting config to JSON");
+            mVault.prefetch();
+        } finally {
+            mLock.readLock().unlock();
         }
-        return conf;
     }
 
     public boolean isPasscodeSetupNeeded() {
-       return mVault.needsUserPasswordSetup();
+        mLock.readLock().lock();
+        try {
+            return mVault.needsUserPasswordSetup();
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public boolean isBiometricsEnabled() {
-        return mVault.isBiometricsEnabled();
+        mLock.readLock().lock();
+        try {
+            return mVault.isBiometricsEnabled();
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public boolean isPasscodeEnabled() {
-        return mVault.isPasscodeEnabled();
+        mLock.readLock().lock();
+        try {
+            return mVault.isPasscodeEnabled();
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public void lock(boolean wasTimeout) {
-        boolean wasLocked = isLocked();
-        mVault.lock();
-        if (!wasLocked) {
-            try {
-                JSONObject data = new JSONObject();
-                data.put("timeout", wasTimeout);
-                data.put("saved", mVault.isInUse());
-                sendEvent("lock", data);
-            } catch (JSONException e) {
-                // pass
-            } catch (VaultError e) {
-                // pass
+        mLock.writeLock().lock();
+        try {
+            boolean wasLocked = isLocked();
+            mVault.lock();
+            if (!wasLocked) {
+                try {
+                    JSONObject data = new JSONObject();
+                    data.put("timeout", wasTimeout);
+                    data.put("saved", mVault.isInUse());
+                    sendEvent("lock", data);
+                } catch (JSONException e) {
+                    // pass
+                }
             }
+        } finally {
+            mLock.writeLock().unlock();
         }
     }
 
     public boolean isLocked() {
-        return mVault.isLocked();
+        mLock.readLock().lock();
+        try {
+            return mVault.isLocked();
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public boolean isInUse() {
-        return mVault.isInUse();
+        mLock.readLock().lock();
+        try {
+            return mVault.isInUse();
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public int remainingAttempts() {
-        return mVault.getRemainingAttempts();
+        mLock.readLock().lock();
+        try {
+            return mVault.getRemainingAttempts();
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public Object getStoredValue(String key) throws VaultError {
-        return mVault.getStoredValue(key);
+        mLock.readLock().lock();
+        try {
+            return mVault.getStoredValue(key);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    public JSONObject getValues(JSONArray keys) throws VaultError {
+        mLock.readLock().lock();
+        try {
+            return mVault.getValues(keys);
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public JSONArray getKeys() throws VaultError {
-        return mVault.getKeys();
+        mLock.readLock().lock();
+        try {
+            return mVault.getKeys();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    public JSONArray getKeysWithPrefix(String prefix) throws VaultError {
+        mLock.readLock().lock();
+        try {
+            return mVault.getKeysWithPrefix(prefix);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    public JSONObject getValuesWithPrefix(String prefix) throws VaultError {
+        mLock.readLock().lock();
+        try {
+            return mVault.getValuesWithPrefix(prefix);
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public void storeValue(String key, Object value) throws VaultError {
-        mVault.storeValue(key, value);
+        mLock.writeLock().lock();
+        try {
+            mVault.storeValue(key, value);
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
     public void removeValue(String key) throws VaultError {
-        mVault.removeValue(key);
+        mLock.writeLock().lock();
+        try {
+            mVault.removeValue(key);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    public void storeValues(JSONObject values) throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            mVault.storeValues(values);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    public void removeValues(JSONArray keys) throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            mVault.removeValues(keys);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    public void removeValuesWithPrefix(String prefix) throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            mVault.removeValuesWithPrefix(prefix);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    public boolean readBlob(String key, VaultBlobStore.Reader reader) throws VaultError {
+        mLock.readLock().lock();
+        try {
+            return mVault.readBlob(key, reader);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    public void storeBlob(String key, byte[] data) throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            mVault.storeBlob(key, data);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    public void removeBlob(String key) throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            mVault.removeBlob(key);
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
     public String getUsername() {
@@ -213,31 +340,56 @@ public class IdentityVault implements LifecycleObserver {
     }
 
     public void setBiometricsEnabled(boolean enabled) throws VaultError {
-        if (!isBiometricsAvailable() && enabled) { throw new SecurityNotAvailableError(); }
-        mVault.setBiometricsEnabled(enabled);
-        sendConfigEvent();
+        mLock.writeLock().lock();
+        try {
+            if (!isBiometricsAvailable() && enabled) { throw new SecurityNotAvailableError(); }
+            mVault.setBiometricsEnabled(enabled);
+            sendConfigEvent();
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
     public void setPasscodeEnabled(boolean enabled) throws VaultError {
-        mVault.setPasscodeEnabled(enabled);
-        sendConfigEvent();
+        mLock.writeLock().lock();
+        try {
+            mVault.setPasscodeEnabled(enabled);
+            sendConfigEvent();
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
     public void setSecureStorageModeEnabled(boolean enabled) throws VaultError {
-        mVault.setSecureStorageModeEnabled(enabled);
-        sendConfigEvent();
+        mLock.writeLock().lock();
+        try {
+            mVault.setSecureStorageModeEnabled(enabled);
+            sendConfigEvent();
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
     public boolean isSecureStorageModeEnabled() {
-        return mVault.isSecureStorageModeEnabled();
+        mLock.readLock().lock();
+        try {
+            return mVault.isSecureStorageModeEnabled();
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     public void setPasscode(String passcode) throws VaultError {
-        if (!isPasscodeEnabled()) { throw new PasscodeNotEnabledError(); }
-        boolean wasNeeded = isPasscodeSetupNeeded();
-        mVault.setPasscode(passcode);
-        if (wasNeeded) {
-            sendConfigEvent();
+        mLock.writeLock().lock();
+        try {
+            if (!isPasscodeEnabled()) { throw new PasscodeNotEnabledError(); }
+            boolean wasNeeded = isPasscodeSetupNeeded();
+            mVault.setPasscode(passcode);
+            if (wasNeeded) {
+                sendConfigEvent();
+            }
+        } finally {
+            mLock.writeLock().unlock();
         }
     }
 
@@ -248,10 +400,17 @@ public class IdentityVault implements LifecycleObserver {
     }
 
     public void unlock(String passcode) throws VaultError {
-        if (!isPasscodeEnabled()) { throw new PasscodeNotEnabledError(); }
-        if (!mVault.isLocked()) { return; }
-        mVault.unlock(passcode);
-        sendEvent("unlock", getConfig());
+        mLock.writeLock().lock();
+        try {
+            if (!isPasscodeEnabled()) { throw new PasscodeNotEnabledError(); }
+            if (mVault.isLocked()) {
+                mVault.unlock(passcode);
+                sendEvent("unlock", getConfig());
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        syncUnlockGroup();
     }
 
     public void unlock(AuthPINDialog.PasscodeDialogCallback callback)  throws VaultError {
@@ -261,42 +420,170 @@ public class IdentityVault implements LifecycleObserver {
     }
 
     public void forceUnlock() throws VaultError {
-        if (!isBiometricsEnabled()) { throw new BiometricsNotEnabled(); }
-        mVault.unlock();
-        sendEvent("unlock", getConfig());
+        mLock.writeLock().lock();
+        try {
+            if (!isBiometricsEnabled()) { throw new BiometricsNotEnabled(); }
+            mVault.unlock();
+            sendEvent("unlock", getConfig());
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        syncUnlockGroup();
     }
 
-    public void addEventHandler(CallbackContext callbackContext) {
-        handlers.put(callbackContext.getCallbackId(), callbackContext);
+    /**
+     * @see IonicCombinedVault#getBiometricUnlockCipher()
+     */
+    public Cipher getBiometricUnlockCipher() throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            return mVault.getBiometricUnlockCipher();
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
-    public void removeEventHandler(String handlerId) {
-        handlers.remove(handlerId);
+    /**
+     * Unlock with the cipher from getBiometricUnlockCipher() once the biometric prompt authorized it
+     */
+    public void forceUnlock(Cipher cipher) throws VaultError {
+        mLock.writeLock().lock();
+        try {
+            if (!isBiometricsEnabled()) { throw new BiometricsNotEnabled(); }
+            mVault.unlock(cipher);
+            sendEvent("unlock", getConfig());
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        syncUnlockGroup();
     }
 
-    private Iterator<CallbackContext> getHandlers() {
-        return handlers.values().iterator();
+    /**
+     * A vault set up with androidUnlockGroup is unlocked along with the group's vault, so one passcode
+     * or biometric prompt unlocks every vault in the group. Its data key is kept wrapped by the group
+     * vault's group key, unwrapping it is all unlocking the vault costs.
+     *
+     * A locked vault is unlocked if its group's vault is unlocked, an unlocked one wraps its data key
+     * for the group if it hasn't yet.
+     *
+     * The group's vault only unlocks others while it's in use and protected by a passcode or biometrics
+     * itself, see IonicCombinedVault.getGroupKey, androidUnlockGroup is ignored otherwise.
+     *
+     * @return false if the vault isn't in a group, the group's vault is locked or unprotected or the
+     * vault's data key isn't wrapped for the group yet
+     */
+    public boolean unlockFromGroup() throws VaultError {
+        VaultDescriptor group = config.unlockGroup;
+        IdentityVault groupVault = group == null ? null : vaultRegistry.get(group.getUniqueId());
+        SecretKey groupKey = groupVault == null ? null : groupVault.getGroupKey();
+        if (groupKey == null) { return false; }
+        mLock.writeLock().lock();
+        try {
+            if (!mVault.isLocked()) {
+                mVault.wrapKeyForGroup(groupKey);
+                return true;
+            }
+            if (!mVault.unlockWithGroupKey(groupKey)) { return false; }
+            sendEvent("unlock", getConfig());
+            return true;
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
-    public void sendConfigEvent() throws VaultError {
-       sendEvent("config", getConfig());
+    private SecretKey getGroupKey() throws VaultError {
+        // the group key is created on first use
+        mLock.writeLock().lock();
+        try {
+            return mVault.getGroupKey();
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
-    private void sendEvent(String eventName, JSONObject data) throws VaultError {
+    /**
+     * Join this vault's group and unlock the vaults that have it as their group. Called without holding
+     * the lock, the vaults are only ever locked one at a time.
+     */
+    private void syncUnlockGroup() {
         try {
-            Iterator<CallbackContext> it = getHandlers();
-            while (it.hasNext()) {
-                CallbackContext c = it.next();
-                JSONObject j = new JSONObject();
-                j.put("event", eventName);
-                j.put("data", data);
-                j.put("handlerId", c.getCallbackId());
-                PluginResult result = new PluginResult(PluginResult.Status.OK, j);
+            unlockFromGroup();
+        } catch (VaultError e) {
+            Log.w(TAG, "Unable to use the vault's unlock group", e);
+        }
+        String uniqueId = descriptor.getUniqueId();
+        for (IdentityVault vault : vaultRegistry.values()) {
+            VaultDescriptor group = vault.config.unlockGroup;
+            if (group == null || !group.getUniqueId().equals(uniqueId)) { continue; }
+            try {
+                vault.unlockFromGroup();
+            } catch (VaultError e) {
+                Log.w(TAG, "Unable to unlock a vault from its group", e);
+            }
+        }
+    }
+
+    /**
+     * Register a handler for vault events, it is sent the current config right away
+     */
+    public void addEventHandler(CallbackContext callbackContext) throws VaultError {
+        String data = getConfig().toString();
+        synchronized (handlers) {
+            handlers.add(callbackContext);
+            mLastConfigEvent = data;
+            dispatchEvent("config", data, Collections.singletonList(callbackContext));
+        }
+    }
+
+    public void removeEventHandler(String handlerId) {
+        handlers.removeIf(c -> c.getCallbackId().equals(handlerId));
+    }
+
+    public void sendConfigEvent() throws VaultError {
+        String data = getConfig().toString();
+        synchronized (handlers) {
+            if (data.equals(mLastConfigEvent)) { return; }
+            mLastConfigEvent = data;
+            dispatchEvent("config", data, handlers);
+        }
+    }
+
+    private void sendEvent(String eventName, JSONObject data) {
+        synchronized (handlers) {
+            dispatchEvent(eventName, data.toString(), handlers);
+        }
+    }
+
+    /*
+        Events are encoded once and sent to every handler from the VaultScheduler thread, so the
+        caller doesn't wait on the bridge and events still arrive in the order they were sent.
+     */
+    private void dispatchEvent(String eventName, String data, List<CallbackContext> targets) {
+        if (targets.isEmpty()) { return; }
+        // only the handler id differs between handlers
+        final String prefix = "{\"event\":" + JSONObject.quote(eventName) + ",\"data\":" + data + ",\"handlerId\":";
+        final CallbackContext[] snapshot = targets.toArray(new CallbackContext[0]);
+        VaultScheduler.getInstance().execute(() -> {
+            for (CallbackContext c : snapshot) {
+                EncodedJSONObject event = new EncodedJSONObject(prefix + JSONObject.quote(c.getCallbackId()) + "}");
+                PluginResult result = new PluginResult(PluginResult.Status.OK, event);
                 result.setKeepCallback(true);
                 c.sendPluginResult(result);
             }
-        } catch (JSONException e) {
-            throw new VaultError("Error converting event to JSON");
+        });
+    }
+
+    // PluginResult takes the message of a JSONObject from toString(), this hands it one encoded already
+    private static class EncodedJSONObject extends JSONObject {
+        private final String mEncoded;
+
+        EncodedJSONObject(String encoded) {
+            mEncoded = encoded;
+        }
+
+        @Override
+        public String toString() {
+            return mEncoded;
         }
     }
 
@@ -304,26 +591,69 @@ public class IdentityVault implements LifecycleObserver {
     public void onCreate() {
     }
 
+    /**
+     * Note an action on the vault. With androidIdleLockAfter set the vault locks once that long
+     * passes without one.
+     */
+    public void onActivity() {
+        int idleLockAfter = config.appConfig.idleLockAfter;
+        if (idleLockAfter <= 0) { return; }
+        mLastActivity = SystemClock.elapsedRealtime();
+        synchronized (mDeadlines) {
+            // an armed deadline checks the latest activity when it fires, no need to move it
+            if (mIdleLock == null) {
+                mIdleLock = VaultScheduler.getInstance().schedule(this::onIdleDeadline, idleLockAfter);
+            }
+        }
+    }
+
+    private void onIdleDeadline() {
+        long remaining = config.appConfig.idleLockAfter - (SystemClock.elapsedRealtime() - mLastActivity);
+        synchronized (mDeadlines) {
+            mIdleLock = remaining > 0 ? VaultScheduler.getInstance().schedule(this::onIdleDeadline, remaining) : null;
+        }
+        if (remaining <= 0) {
+            lock(true);
+        }
+    }
+
     @OnLifecycleEvent(Lifecycle.Event.ON_START)
     public void onMoveToForeground() {
         // app moved to foreground
-        if (backgroundStart != null) {
-            Date now = new Date();
-            long diff = now.getTime() - backgroundStart.getTime();
+        // enrollments may have changed in settings while we were away
+        BiometricCapabilities.invalidate();
+        synchronized (mDeadlines) {
+            if (mBackgroundLock != null) {
+                mBackgroundLock.cancel(false);
+                mBackgroundLock = null;
+            }
+        }
+        long backgroundStart = mBackgroundStart;
+        if (backgroundStart >= 0) {
+            long diff = SystemClock.elapsedRealtime() - backgroundStart;
 
+            // the deadline doesn't fire while the device sleeps
             if (config.appConfig.lockAfter > 0 && diff > config.appConfig.lockAfter) {
                 lock(true);
             }
 
-            backgroundStart = null;
+            mBackgroundStart = -1;
         }
     }
 
     @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
     public void onMoveToBackground() {
         if (doTheLifecycles) {
-            // app moved to background
-            backgroundStart = new Date();
+            // app moved to background, lock once it has been there for lockAfter ms
+            mBackgroundStart = SystemClock.elapsedRealtime();
+            int lockAfter = config.appConfig.lockAfter;
+            if (lockAfter <= 0) { return; }
+            synchronized (mDeadlines) {
+                if (mBackgroundLock != null) {
+                    mBackgroundLock.cancel(false);
+                }
+                mBackgroundLock = VaultScheduler.getInstance().schedule(() -> lock(true), lockAfter);
+            }
         }
     }
 }
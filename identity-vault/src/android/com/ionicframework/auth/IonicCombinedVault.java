@@ -4,9 +4,7 @@ import android.annotation.TargetApi;
 import android.content.Context;
 
 import com.bottlerocketstudios.vault.EncryptionConstants;
-import com.bottlerocketstudios.vault.keys.generator.Aes256KeyFromPasswordFactory;
 import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
-import com.bottlerocketstudios.vault.salt.SaltGenerator;
 
 import android.os.Build;
 import android.security.keystore.KeyGenParameterSpec;
@@ -17,10 +15,15 @@ import android.util.Base64;
 import android.util.Log;
 
 import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
@@ -29,30 +32,48 @@ import javax.crypto.spec.SecretKeySpec;
 
 /*
     Vault that combines passcode & biometric vaults depending on the configuration
+
+    The records are encrypted with a data key that stays the same for the life of the vault. The
+    passcode only wraps that key (VaultState.wrappedKey), the biometric vault and secure storage mode
+    keep their own copy of it and BiometricKeyWrap wraps it for the biometric prompt, so changing the
+    passcode or how the vault is unlocked never touches the stored data. A vault in an unlock group
+    also keeps it wrapped by the group vault's group key (VaultState.groupWrappedKey).
  */
 public class IonicCombinedVault {
-    private static final int PBKDF_ITERATIONS = 10000;
     final private int MAX_AUTH_ATTEMPTS = 5;
     final private String STORAGE_KEY = "STORAGE_KEY";
     final private String STORAGE_KEY_ALGORITHM = "STORAGE_KEY_ALGORITHM";
     final private String TAG = "IonicCombinedVault";
     final private String FINGERPRINT_KEY = "_ionicAuthFingerprintKey";
+    private static final Object MISSING_VALUE = new Object();
+    // larger vaults aren't worth holding entirely in memory just in case
+    private static final int MAX_PREFETCH_VALUES = 256;
 
 
     private IonicVault mStorageVault;
     private IonicVault mBiometricVault;
+    final private VaultBlobStore mBlobStore;
     private IdentityVault mParent;
     private VaultState mState;
     private Context mContext;
     private String mDescriptor;
-    private int remainingAttempts = MAX_AUTH_ATTEMPTS;
+    final private AtomicInteger remainingAttempts = new AtomicInteger(MAX_AUTH_ATTEMPTS);
+    // decrypted values read while unlocked, dropped whenever the vault locks or is re-keyed
+    final private ConcurrentHashMap<String, Object> mValueCache = new ConcurrentHashMap<>();
 
     IonicCombinedVault(Context context, String descriptor, IdentityVault parent) throws VaultError {
        mDescriptor = descriptor;
        mParent = parent;
        mState = new VaultState(VaultFactory.getStateVault(context), descriptor, parent.isBiometricsAvailable());
        mContext = context;
-       mStorageVault = VaultFactory.getPasscodeVault(context, mDescriptor);
+       VaultAppConfig appConfig = parent.config.appConfig;
+       boolean hadGcmRecords = mState.gcmRecords;
+       mStorageVault = VaultFactory.getPasscodeVault(context, mDescriptor, mState.getStorageBackend(appConfig.storageBackend), mState.useGcmRecords(appConfig.gcmRecords));
+       if (mState.inUse && mState.gcmRecords != hadGcmRecords) {
+           // a vault holding data must remember it switched to GCM records
+           mState.storeState();
+       }
+       mBlobStore = VaultFactory.getBlobStore(context, mDescriptor);
        if (parent.isBiometricsAvailable()) {
            mBiometricVault = VaultFactory.getBiometricVault(context, mDescriptor);
        }
@@ -79,6 +100,8 @@ public class IonicCombinedVault {
                 clear();
             } catch (VaultError e) { }
         }
+        mValueCache.clear();
+        mBlobStore.lock();
         mStorageVault.lock();
         if (mBiometricVault != null) {
             mBiometricVault.lock();
@@ -104,7 +127,55 @@ public class IonicCombinedVault {
     public Object getStoredValue(String key) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
         if (!isInUse()) { return null; }
-        return mStorageVault.getStoredValue(key);
+        Object cached = mValueCache.get(key);
+        if (cached != null) {
+            return cached == MISSING_VALUE ? null : cached;
+        }
+        Object value = mStorageVault.getStoredValue(key);
+        mValueCache.put(key, value == null ? MISSING_VALUE : value);
+        return value;
+    }
+
+    public JSONObject getValues(JSONArray keys) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        JSONObject values = new JSONObject();
+        if (!isInUse()) { return values; }
+        JSONArray missingKeys = new JSONArray();
+        try {
+            for (int i = 0; i < keys.length(); i++) {
+                String key = keys.optString(i);
+                Object cached = mValueCache.get(key);
+                if (cached == null) {
+                    missingKeys.put(key);
+                } else if (cached != MISSING_VALUE) {
+                    values.put(key, cached);
+                }
+            }
+            if (missingKeys.length() == 0) { return values; }
+            JSONObject stored = mStorageVault.getValues(missingKeys);
+            for (int i = 0; i < missingKeys.length(); i++) {
+                String key = missingKeys.optString(i);
+                Object value = stored.opt(key);
+                mValueCache.put(key, value == null ? MISSING_VALUE : value);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        } catch (JSONException e) {
+            throw new VaultError("Error reading stored values");
+        }
+        return values;
+    }
+
+    /**
+     * Decrypt the values of a vault that's readable without user interaction (secure storage mode)
+     * into the value cache ahead of the first reads
+     */
+    public void prefetch() throws VaultError {
+        if (!isSecureStorageModeEnabled() || isLocked() || !isInUse()) { return; }
+        JSONArray keys = mStorageVault.getKeys();
+        if (keys.length() > MAX_PREFETCH_VALUES) { return; }
+        getValues(keys);
     }
 
     public JSONArray getKeys() throws VaultError {
@@ -113,9 +184,22 @@ public class IonicCombinedVault {
         return mStorageVault.getKeys();
     }
 
+    public JSONArray getKeysWithPrefix(String prefix) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (!isInUse()) { return null; }
+        return mStorageVault.getKeysWithPrefix(prefix);
+    }
+
+    public JSONObject getValuesWithPrefix(String prefix) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (!isInUse()) { return new JSONObject(); }
+        return getValues(mStorageVault.getKeysWithPrefix(prefix));
+    }
+
     public void storeValue(String key, Object obj) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
         if (needsUserPasswordSetup()) { throw new MissingPasscodeError(); }
+        mValueCache.remove(key);
         mStorageVault.storeValue(key, obj);
         markAsInUse();
     }
@@ -124,72 +208,190 @@ public class IonicCombinedVault {
         if (isLocked()) { throw new VaultLockedError(); }
         if (needsUserPasswordSetup()) { throw new MissingPasscodeError(); }
         mStorageVault.removeValue(key);
+        mValueCache.put(key, MISSING_VALUE);
+        markAsInUse();
+    }
+
+    public void storeValues(JSONObject values) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (needsUserPasswordSetup()) { throw new MissingPasscodeError(); }
+        Iterator<String> keys = values.keys();
+        while (keys.hasNext()) {
+            mValueCache.remove(keys.next());
+        }
+        mStorageVault.storeValues(values);
+        markAsInUse();
+    }
+
+    public void removeValues(JSONArray keys) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (needsUserPasswordSetup()) { throw new MissingPasscodeError(); }
+        mStorageVault.removeValues(keys);
+        for (int i = 0; i < keys.length(); i++) {
+            mValueCache.put(keys.optString(i), MISSING_VALUE);
+        }
+        markAsInUse();
+    }
+
+    public void removeValuesWithPrefix(String prefix) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (needsUserPasswordSetup()) { throw new MissingPasscodeError(); }
+        JSONArray keys = mStorageVault.removeValuesWithPrefix(prefix);
+        for (int i = 0; i < keys.length(); i++) {
+            mValueCache.put(keys.optString(i), MISSING_VALUE);
+        }
+        markAsInUse();
+    }
+
+    /**
+     * @return false if there's no blob with that key
+     */
+    public boolean readBlob(String key, VaultBlobStore.Reader reader) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (!isInUse()) { return false; }
+        return mBlobStore.read(mStorageVault.getKey(), key, reader);
+    }
+
+    public void storeBlob(String key, byte[] data) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (needsUserPasswordSetup()) { throw new MissingPasscodeError(); }
+        mBlobStore.store(mStorageVault.getKey(), key, data);
+        markAsInUse();
+    }
+
+    public void removeBlob(String key) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (needsUserPasswordSetup()) { throw new MissingPasscodeError(); }
+        mBlobStore.remove(mStorageVault.getKey(), key);
         markAsInUse();
     }
 
     public void setPasscodeEnabled(boolean enabled) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
         if (enabled == isPasscodeEnabled()) { return; }
-        mState.passcodeEnabled = enabled;
         if (enabled) {
+            // leaving secure storage mode replaces the data key, it's written before anything else
             setSecureStorageModeEnabled(false);
-            mState.passcodeSetup = false;
-            mState.storeState();
-            autoGenerateKeyIfNeeded();
-        } else {
-            mState.salt = null;
-            SecretKey key = Aes256RandomKeyFactory.createKey();
-            mStorageVault.restoreVaultWithNewKey(key);
-            mState.passcodeSetup = true;
-            mState.storeState();
-            storeKeyInBioVault(key);
         }
+        mState.beginEdit();
+        try {
+            mState.passcodeEnabled = enabled;
+            if (enabled) {
+                mState.passcodeSetup = false;
+                mState.storeState();
+                autoGenerateKeyIfNeeded();
+            } else {
+                // only the passcode's copy of the data key goes
+                mState.salt = null;
+                mState.wrappedKey = null;
+                mState.passcodeSetup = true;
+                mState.storeState();
+                storeKeyInBioVault(mStorageVault.getKey());
+            }
+            dropGroupKeyIfUnprotected();
+        } catch (VaultError | RuntimeException e) {
+            mState.abortEdit();
+            throw e;
+        }
+        mState.endEdit();
     }
 
     public void setBiometricsEnabled(boolean enabled) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
         if (enabled == isBiometricsEnabled()) { return; }
-        mState.biometricsEnabled = enabled;
-        mState.storeState();
         if (enabled) {
-            setupBiometricChangeDetectionKey();
             setSecureStorageModeEnabled(false);
+        }
+        // the state is written before the key store and the biometric vault change, neither can be
+        // put back if a later step fails
+        mState.beginEdit();
+        try {
+            mState.biometricsEnabled = enabled;
+            mState.biometricWrappedKey = null;
+            dropGroupKeyIfUnprotected();
+        } catch (VaultError | RuntimeException e) {
+            mState.abortEdit();
+            throw e;
+        }
+        mState.endEdit();
+        if (BiometricKeyWrap.isSupported()) {
+            BiometricKeyWrap.deleteKeyPair(mDescriptor);
+        }
+        if (enabled) {
+            setupBiometricChangeDetectionKey();
             storeKeyInBioVault(mStorageVault.getKey());
-        } else {
-            if (mBiometricVault != null) {
-                mBiometricVault.rekeyStorage(null);
-            }
+        } else if (mBiometricVault != null) {
+            mBiometricVault.rekeyStorage(null);
         }
     }
 
     public void setSecureStorageModeEnabled(boolean enabled) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
         if (enabled == isSecureStorageModeEnabled()) { return; }
-        if (enabled) {
-            setBiometricsEnabled(false);
-            setPasscodeEnabled(false);
-            mState.enableSecureStorage(true);
-            mStorageVault.restoreVaultWithNewKey(mState.secureStorageKey);
-        } else {
-            mState.enableSecureStorage(false);
-            SecretKey key = Aes256RandomKeyFactory.createKey();
+        mState.beginEdit();
+        try {
+            if (enabled) {
+                setBiometricsEnabled(false);
+                setPasscodeEnabled(false);
+                mState.enableSecureStorage(true, mStorageVault.getKey());
+            } else {
+                mState.enableSecureStorage(false, null);
+                replaceDataKey();
+            }
+            dropGroupKeyIfUnprotected();
+            mState.storeState();
+        } catch (VaultError | RuntimeException e) {
+            mState.abortEdit();
+            throw e;
+        }
+        mState.endEdit();
+    }
+
+    /**
+     * Re-encrypt the vault under a new data key. Secure storage mode keeps the data key in the state,
+     * where only the app's own key protects it, so the key is replaced when the vault leaves the mode.
+     * Every copy wrapped by the previous key goes with it.
+     */
+    private void replaceDataKey() throws VaultError {
+        SecretKey previousKey = mStorageVault.getKey();
+        SecretKey key = Aes256RandomKeyFactory.createKey();
+        mBlobStore.prepareRekey(previousKey, key);
+        try {
             mStorageVault.restoreVaultWithNewKey(key);
+        } catch (VaultError e) {
+            mBlobStore.abortRekey();
+            throw e;
         }
+        mBlobStore.commitRekey();
+        // biometrics and the passcode were turned off with the mode, only a group can hold a copy
+        mState.wrappedKey = null;
+        mState.groupWrappedKey = null;
+        mState.unlockGroupKey = null;
         mState.storeState();
     }
 
     public void clear() throws VaultError {
-        if (mBiometricVault != null) {
-            mBiometricVault.rekeyStorage(null);
+        try {
+            mValueCache.clear();
+            if (mBiometricVault != null) {
+                mBiometricVault.rekeyStorage(null);
+            }
+            mStorageVault.clearStorage();
+            mBlobStore.clear();
+        } finally {
+            // whatever was deleted stays deleted, the state says the vault is cleared even if a step failed
+            mState.inUse = false;
+            mState.passcodeSetup = false;
+            mState.wrappedKey = null;
+            mState.biometricWrappedKey = null;
+            mState.groupWrappedKey = null;
+            mState.unlockGroupKey = null;
+            mState.storeState();
         }
-        mStorageVault.clearStorage();
-        mState.inUse = false;
-        mState.passcodeSetup = false;
-        mState.storeState();
         autoGenerateKeyIfNeeded();
     }
 
-    private void autoGenerateKeyIfNeeded() {
+    private void autoGenerateKeyIfNeeded() throws VaultError {
         if (mStorageVault.isKeyAvailable()) { return; } // don't if the key is ready
         if (mState.inUse && !mState.isSecureStorageModeEnabled()) { return; } // don't generate if inUse (force user to clear)
         if (mState.isSecureStorageModeEnabled()) {
@@ -201,7 +403,7 @@ public class IonicCombinedVault {
         storeKeyInBioVault(mStorageVault.getKey());
     }
 
-    private void storeKeyInBioVault(SecretKey key) {
+    private void storeKeyInBioVault(SecretKey key) throws VaultError {
         if (isBiometricsEnabled()) {
             if (mBiometricVault == null) {
                 mBiometricVault = VaultFactory.getBiometricVault(mContext, mDescriptor);
@@ -213,6 +415,28 @@ public class IonicCombinedVault {
                     .putString(STORAGE_KEY, encodedKey)
                     .putString(STORAGE_KEY_ALGORITHM, key.getAlgorithm())
                     .apply();
+            wrapKeyForBiometricPrompt(key);
+        }
+    }
+
+    private void wrapKeyForBiometricPrompt(SecretKey key) throws VaultError {
+        // the data key doesn't change, once it's wrapped it stays wrapped until biometrics are reset
+        if (mState.biometricWrappedKey != null || !BiometricKeyWrap.isSupported()) { return; }
+        try {
+            mState.biometricWrappedKey = BiometricKeyWrap.wrap(mDescriptor, key);
+        } catch (VaultError e) {
+            // unlocking after the prompt falls back to the biometric vault
+            Log.w(TAG, "Unable to wrap the vault key for the biometric prompt", e);
+            return;
+        }
+        mState.storeState();
+    }
+
+    private void dropBiometricWrappedKey() throws VaultError {
+        mState.biometricWrappedKey = null;
+        mState.storeState();
+        if (BiometricKeyWrap.isSupported()) {
+            BiometricKeyWrap.deleteKeyPair(mDescriptor);
         }
     }
 
@@ -220,34 +444,62 @@ public class IonicCombinedVault {
         return !mState.passcodeSetup && mState.passcodeEnabled;
     }
 
-    private SecretKey keyFromPassword(String password, SaltGenerator saltGenerator) {
-        return Aes256KeyFromPasswordFactory.createKey(password, PBKDF_ITERATIONS, saltGenerator);
+    private KdfPolicy getDefaultKdfPolicy() {
+        return KdfPolicy.getDefault(mContext, mParent.config.appConfig);
     }
 
     public void setPasscode(String password) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
         if (!mState.passcodeEnabled) { throw new PasscodeNotEnabledError(); }
-        mState.newSalt();
-        SecretKey key = keyFromPassword(password, mState.getSaltGenerator());
-        mStorageVault.restoreVaultWithNewKey(key);
-        mState.passcodeSetup = true;
-        mState.storeState();
-        storeKeyInBioVault(key);
+        wrapKeyWithPasscode(mStorageVault.getKey(), password, getDefaultKdfPolicy());
+    }
+
+    /**
+     * Wrap the data key with a key derived from the passcode, the state is written once with the new
+     * wrap and the prompt's wrap of the key.
+     */
+    private void wrapKeyWithPasscode(SecretKey dataKey, String password, KdfPolicy policy) throws VaultError {
+        mState.beginEdit();
+        try {
+            mState.newSalt();
+            mState.kdfPolicy = policy;
+            SecretKey passcodeKey = policy.deriveKey(password, mState.getSalt());
+            mState.wrappedKey = VaultKeyWrap.wrap(passcodeKey, dataKey, mDescriptor);
+            mState.passcodeSetup = true;
+            mState.storeState();
+            storeKeyInBioVault(dataKey);
+        } catch (VaultError | RuntimeException e) {
+            mState.abortEdit();
+            throw e;
+        }
+        mState.endEdit();
     }
 
     public void unlock(String password) throws VaultError {
         if (!isLocked()) { return; }
         if (!mState.passcodeEnabled) { throw new PasscodeNotEnabledError(); }
-        SecretKey key = Aes256KeyFromPasswordFactory.createKey(password, PBKDF_ITERATIONS, mState.getSaltGenerator());
-        mStorageVault.setKey(key);
+        SecretKey passcodeKey = mState.getKdfPolicy().deriveKey(password, mState.getSalt());
+        boolean legacyKey = mState.wrappedKey == null;
+        SecretKey dataKey = legacyKey ? passcodeKey : VaultKeyWrap.unwrap(passcodeKey, mState.wrappedKey, mDescriptor);
         try {
+            if (dataKey == null) { throw new AuthFailedError(); }
+            mStorageVault.setKey(dataKey);
             mStorageVault.validateLogin();
-            remainingAttempts = MAX_AUTH_ATTEMPTS;
-            storeKeyInBioVault(mStorageVault.getKey());
+            remainingAttempts.set(MAX_AUTH_ATTEMPTS);
+            KdfPolicy currentPolicy = mState.getKdfPolicy();
+            KdfPolicy defaultPolicy = getDefaultKdfPolicy();
+            // a changed app config or calibration never weakens the passcode key of an existing vault
+            KdfPolicy policy = defaultPolicy.isWeakerThan(currentPolicy) ? currentPolicy : defaultPolicy;
+            if (legacyKey || !policy.equals(currentPolicy)) {
+                // the data key isn't wrapped yet or the passcode key was derived with outdated
+                // settings, rewrap now that we know the passcode
+                wrapKeyWithPasscode(dataKey, password, policy);
+                return;
+            }
+            storeKeyInBioVault(dataKey);
         } catch (AuthFailedError e) {
-            remainingAttempts--;
             mStorageVault.lock();
-            if (remainingAttempts == 0) {
+            if (remainingAttempts.decrementAndGet() == 0) {
                 throw new TooManyFailedAttemptsError();
             }
             throw e;
@@ -270,10 +522,9 @@ public class IonicCombinedVault {
     @TargetApi(Build.VERSION_CODES.M)
     private void setupBiometricChangeDetectionKey() throws VaultError {
         try {
-            KeyStore keyStore = KeyStore.getInstance(EncryptionConstants.ANDROID_KEY_STORE);
-            keyStore.load(null);
+            KeyStore keyStore = VaultCrypto.getAndroidKeyStore();
             keyStore.deleteEntry(FINGERPRINT_KEY);
-            KeyGenerator keyGenerator = KeyGenerator.getInstance(EncryptionConstants.AES_CIPHER, EncryptionConstants.ANDROID_KEY_STORE);
+            KeyGenerator keyGenerator = VaultCrypto.getKeystoreKeyGenerator(EncryptionConstants.AES_CIPHER);
 
             keyGenerator.init(new KeyGenParameterSpec.Builder(FINGERPRINT_KEY, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
                     .setBlockModes(KeyProperties.BLOCK_MODE_CBC)
@@ -289,29 +540,67 @@ public class IonicCombinedVault {
 
     @TargetApi(Build.VERSION_CODES.M)
     private void detectFingerprintsChanged() throws VaultError {
+        VaultMetrics.getInstance().time(VaultMetrics.KEYSTORE_DETECT_FINGERPRINTS_CHANGED, () -> {
+            checkBiometricChangeDetectionKey();
+            return null;
+        });
+    }
+
+    private void checkBiometricChangeDetectionKey() throws VaultError {
         try {
-            KeyStore keyStore = KeyStore.getInstance(EncryptionConstants.ANDROID_KEY_STORE);
-            keyStore.load(null);
-            Key key = keyStore.getKey(FINGERPRINT_KEY, null);
+            Key key = VaultCrypto.getAndroidKeyStore().getKey(FINGERPRINT_KEY, null);
             if (key == null) {
                 setupBiometricChangeDetectionKey();
                 return;
             }
-            Cipher cipher = Cipher.getInstance(EncryptionConstants.AES_CBC_PADDED_TRANSFORM_ANDROID_M);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
+            VaultCrypto.getCipher(EncryptionConstants.AES_CBC_PADDED_TRANSFORM_ANDROID_M, Cipher.ENCRYPT_MODE, key);
         } catch (KeyPermanentlyInvalidatedException e) {
-            if (!isPasscodeEnabled()) {
-                // no way for them to recover so might as well clear the vault
-                clear();
-            }
-            mBiometricVault.rekeyStorage(null);
-            setupBiometricChangeDetectionKey();
-            throw new InvalidatedCredentialsError();
+            onBiometricsInvalidated();
         } catch (Exception e) {
             throw new VaultError(e.getLocalizedMessage());
         }
     }
 
+    private void onBiometricsInvalidated() throws VaultError {
+        BiometricCapabilities.invalidate();
+        if (!isPasscodeEnabled()) {
+            // no way for them to recover so might as well clear the vault
+            clear();
+        }
+        mBiometricVault.rekeyStorage(null);
+        dropBiometricWrappedKey();
+        setupBiometricChangeDetectionKey();
+        throw new InvalidatedCredentialsError();
+    }
+
+    /**
+     * A cipher for the biometric prompt's CryptoObject, once the prompt authorizes it unlock(Cipher)
+     * unlocks the vault with it. Biometric changes are detected here, before the user is prompted.
+     *
+     * @return null if the data key isn't wrapped for the prompt, the vault is unlocked with unlock()
+     * after a prompt without one
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public Cipher getBiometricUnlockCipher() throws VaultError {
+        if (!isBiometricsEnabled()) { throw new BiometricsNotEnabled(); }
+        if (mState.biometricWrappedKey == null || !BiometricKeyWrap.isSupported()) { return null; }
+        try {
+            return BiometricKeyWrap.getUnwrapCipher(mDescriptor);
+        } catch (KeyPermanentlyInvalidatedException e) {
+            onBiometricsInvalidated();
+            return null;
+        }
+    }
+
+    public void unlock(Cipher cipher) throws VaultError {
+        if (!isLocked()) { return; }
+        if (!isBiometricsEnabled()) { throw new BiometricsNotEnabled(); }
+        SecretKey key = mState.biometricWrappedKey == null ? null : BiometricKeyWrap.unwrap(cipher, mState.biometricWrappedKey);
+        if (key == null) { throw new AuthFailedError(); }
+        mStorageVault.setKey(key);
+        validateUnlock();
+    }
+
     @TargetApi(Build.VERSION_CODES.M)
     public void unlock() throws VaultError {
         if (!isLocked()) { return; }
@@ -323,6 +612,7 @@ public class IonicCombinedVault {
             if (encodedKey == null || keyAlgorithm == null) {
                 mState.biometricsEnabled = false;
                 mState.storeState();
+                dropGroupKeyIfUnprotected();
                 mBiometricVault.rekeyStorage(null);
                 throw new BiometricsNotEnabled();
             }
@@ -336,13 +626,82 @@ public class IonicCombinedVault {
             }
         }
 
+        validateUnlock();
+        if (!isLocked()) {
+            // vaults set up before the prompt unwrapped the key use it from the next unlock on
+            wrapKeyForBiometricPrompt(mStorageVault.getKey());
+        }
+    }
+
+    /**
+     * The key that unlocks the vaults of this vault's unlock group. Only a vault the user had to unlock
+     * with a passcode or biometrics vouches for its members, null for any other (locked, not in use
+     * yet, secure storage mode or no passcode set up).
+     *
+     * It's a random key of its own, kept wrapped by the data key and created on first use. It's dropped
+     * as soon as the vault stops being protected, so exposing the data key (secure storage mode keeps
+     * it in the state) can't unwrap the members' keys, they're wrapped with a new group key instead.
+     */
+    SecretKey getGroupKey() throws VaultError {
+        if (isLocked() || !mState.inUse || !isUserProtected()) { return null; }
+        SecretKey dataKey = mStorageVault.getKey();
+        SecretKey groupKey = mState.unlockGroupKey == null ? null : VaultKeyWrap.unwrap(dataKey, mState.unlockGroupKey, mDescriptor);
+        if (groupKey == null) {
+            groupKey = Aes256RandomKeyFactory.createKey();
+            mState.unlockGroupKey = VaultKeyWrap.wrap(dataKey, groupKey, mDescriptor);
+            mState.storeState();
+        }
+        return groupKey;
+    }
+
+    private boolean isUserProtected() {
+        if (isSecureStorageModeEnabled()) { return false; }
+        boolean passcodeProtected = isPasscodeEnabled() && !needsUserPasswordSetup();
+        return passcodeProtected || isBiometricsEnabled();
+    }
+
+    private void dropGroupKeyIfUnprotected() throws VaultError {
+        if (mState.unlockGroupKey == null || isUserProtected()) { return; }
+        mState.unlockGroupKey = null;
+        mState.storeState();
+    }
+
+    /**
+     * @param groupKey the group key of the vault's unlock group
+     * @return false if the data key isn't wrapped by the group key, e.g. the group vault was cleared
+     * or unprotected since it was wrapped
+     */
+    public boolean unlockWithGroupKey(SecretKey groupKey) throws VaultError {
+        if (!isLocked()) { return true; }
+        if (mState.groupWrappedKey == null) { return false; }
+        SecretKey dataKey = VaultKeyWrap.unwrap(groupKey, mState.groupWrappedKey, mDescriptor);
+        if (dataKey == null) {
+            mState.groupWrappedKey = null;
+            mState.storeState();
+            return false;
+        }
+        mStorageVault.setKey(dataKey);
+        validateUnlock();
+        return true;
+    }
+
+    /**
+     * Wrap the data key with the unlock group's data key, unless it already is
+     */
+    public void wrapKeyForGroup(SecretKey groupKey) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        if (mState.groupWrappedKey != null && VaultKeyWrap.unwrap(groupKey, mState.groupWrappedKey, mDescriptor) != null) { return; }
+        mState.groupWrappedKey = VaultKeyWrap.wrap(groupKey, mStorageVault.getKey(), mDescriptor);
+        mState.storeState();
+    }
+
+    private void validateUnlock() throws VaultError {
         try {
             mStorageVault.validateLogin();
-            remainingAttempts = MAX_AUTH_ATTEMPTS;
+            remainingAttempts.set(MAX_AUTH_ATTEMPTS);
         } catch (AuthFailedError e) {
-            remainingAttempts--;
             mStorageVault.lock();
-            if (remainingAttempts == 0) {
+            if (remainingAttempts.decrementAndGet() == 0) {
                 throw new TooManyFailedAttemptsError();
             }
             throw e;
@@ -350,6 +709,6 @@ public class IonicCombinedVault {
     }
 
     public int getRemainingAttempts() {
-        return remainingAttempts;
+        return remainingAttempts.get();
     }
 }
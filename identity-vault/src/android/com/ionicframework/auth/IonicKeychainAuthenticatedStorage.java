@@ -21,12 +21,10 @@ import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 import android.util.Log;
 
-import com.bottlerocketstudios.vault.EncryptionConstants;
 import com.bottlerocketstudios.vault.keys.storage.KeychainAuthenticatedKeyStorage;
 
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
-import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -43,7 +41,7 @@ public class IonicKeychainAuthenticatedStorage extends KeychainAuthenticatedKeyS
     private static final String TAG = "IonicKeychainStorage";
 
     private final String mKeyLock = "keyLock";
-    private SecretKey mSecretKey;
+    private volatile SecretKey mSecretKey;
 
     private final String mKeyAlias;
     private final String mAlgorithm;
@@ -63,11 +61,16 @@ public class IonicKeychainAuthenticatedStorage extends KeychainAuthenticatedKeyS
 
     @Override
     public SecretKey loadKey(Context context) {
-        if (mSecretKey != null) {
+        SecretKey secretKey = mSecretKey;
+        if (secretKey != null) {
+            return secretKey;
+        }
+        synchronized (mKeyLock) {
+            if (mSecretKey == null) {
+                mSecretKey = super.loadKey(context);
+            }
             return mSecretKey;
         }
-        mSecretKey = super.loadKey(context);
-        return mSecretKey;
     }
 
     @Override
@@ -82,9 +85,8 @@ public class IonicKeychainAuthenticatedStorage extends KeychainAuthenticatedKeyS
     private boolean automaticallyCreateKey() {
         synchronized (mKeyLock) {
             try {
-                KeyStore keyStore = KeyStore.getInstance(EncryptionConstants.ANDROID_KEY_STORE);
-                keyStore.load(null);
-                KeyGenerator keyGenerator = KeyGenerator.getInstance(mAlgorithm, EncryptionConstants.ANDROID_KEY_STORE);
+                VaultCrypto.getAndroidKeyStore();
+                KeyGenerator keyGenerator = VaultCrypto.getKeystoreKeyGenerator(mAlgorithm);
 
                 keyGenerator.init(new KeyGenParameterSpec.Builder(mKeyAlias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
                         .setBlockModes(mBlockMode)
@@ -5,11 +5,14 @@ import android.content.Context;
 
 import android.content.Intent;
 import android.content.res.Resources;
-import android.hardware.fingerprint.FingerprintManager;
-import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
 import android.view.WindowManager;
 
+import androidx.fragment.app.FragmentActivity;
+
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
@@ -19,25 +22,107 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
 
 
 public class IonicNativeAuth extends CordovaPlugin {
   private static final String TAG = "IonicNativeAuthPlugin";
-  private IdentityVault mCurrentVault = null;
-  private boolean mLockedOutOfBiometrics = false;
+  private volatile IdentityVault mPendingBiometricVault = null;
+  // SystemClock.elapsedRealtime() when the biometric lockout ends
+  private volatile long mBiometricLockoutEnd = 0;
 
   private static final int REQUEST_CODE_BIOMETRIC = 1;
+  // Biometrics lockout lasts for 30 seconds
+  // @see https://developer.android.com/reference/android/hardware/biometrics/BiometricPrompt#BIOMETRIC_ERROR_LOCKOUT
+  private static final long BIOMETRIC_LOCKOUT_DURATION = 30 * 1000;
+  private static final int WORKER_THREADS = Math.min(Math.max(Runtime.getRuntime().availableProcessors(), 2), 4);
+
+  // actions that only read vault state, consecutive reads of a vault may run at the same time
+  private static final Set<String> READ_ACTIONS = new HashSet<>(Arrays.asList(
+          "getConfig", "isLocked", "isLockedOutOfBiometrics", "isInUse", "remainingAttempts",
+          "getValue", "getValues", "getKeys", "getKeysWithPrefix", "getValuesWithPrefix", "getBlob",
+          "getUsername", "getBiometricType",
+          "getAvailableHardware", "isBiometricsAvailable", "isBiometricsSupported", "isBiometricsEnabled",
+          "isSecureStorageModeEnabled", "isPasscodeEnabled", "isPasscodeSetupNeeded", "getMetrics"));
 
-  private CallbackContext mLastCallbackContext;
+  // actions that use a vault's contents, the idle lock counts from the last one (polling the lock
+  // state doesn't keep a vault unlocked)
+  private static final Set<String> ACTIVITY_ACTIONS = new HashSet<>(Arrays.asList(
+          "getValue", "getValues", "getKeys", "getKeysWithPrefix", "getValuesWithPrefix", "storeValue",
+          "storeValues", "removeValue", "removeValues", "removeValuesWithPrefix", "getBlob", "storeBlob",
+          "removeBlob", "unlock", "setPasscode"));
+
+  private volatile CallbackContext mLastCallbackContext;
+  private volatile long mBiometricPromptStart;
+
+  private VaultDispatcher mDispatcher;
 
 
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
+    mDispatcher = new VaultDispatcher(Executors.newFixedThreadPool(WORKER_THREADS));
+    if (VaultPrefetcher.isEnabled(cordova.getContext())) {
+      mDispatcher.dispatch("", false, this::prefetchVaults);
+    }
+  }
+
+  private void prefetchVaults() {
+    VaultPrefetcher.warmUp(cordova.getContext());
+    try {
+      for (JSONObject options : VaultPrefetcher.getRememberedVaults(cordova.getContext())) {
+        String vaultId = new VaultDescriptor(options).getUniqueId();
+        // queued like any other write so a setup that arrives first simply finds the vault ready
+        mDispatcher.dispatch(vaultId, false, () -> prefetchVault(options));
+      }
+    } catch (VaultError e) {
+      Log.w(TAG, "Unable to prefetch vaults", e);
+    }
+  }
+
+  private void prefetchVault(JSONObject options) {
+    try {
+      IdentityVault.getFromRegistryOrCreate(cordova.getActivity(), options).prefetch();
+    } catch (VaultError e) {
+      Log.w(TAG, "Unable to prefetch vault", e);
+    }
+  }
+
+  @Override
+  public void onDestroy() {
+    mDispatcher.shutdown();
+  }
+
+  public boolean execute(final String action, final JSONArray args, final CallbackContext callbackContext) {
+    // started before dispatching so the timings include time spent waiting behind other actions
+    final CallbackContext metered = new MeteredCallbackContext(action, callbackContext, webView);
+    dispatch(getVaultIdFromArgs(args), READ_ACTIONS.contains(action), metered, () -> runAction(action, args, metered));
+    return true;
   }
 
-  public boolean execute(String action, JSONArray args, final CallbackContext callbackContext) {
+  /**
+   * Run work for a call on the dispatcher. PluginManager.exec used to turn a RuntimeException into an
+   * error when actions ran on its thread, here it would leave the call unanswered.
+   */
+  private void dispatch(String vaultId, boolean readOnly, CallbackContext callbackContext, Runnable task) {
+    mDispatcher.dispatch(vaultId, readOnly, () -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Unhandled runtime error", e);
+        error(callbackContext, new VaultError("unhandled runtime error: " + e.getLocalizedMessage()));
+      }
+    });
+  }
+
+  private void runAction(String action, JSONArray args, CallbackContext callbackContext) {
+    if (ACTIVITY_ACTIONS.contains(action)) {
+      onVaultActivity(args);
+    }
     if (action.equals("setup")) {
       setup(args, callbackContext);
     } else if (action.equals("getConfig")) {
@@ -56,12 +141,30 @@ public class IonicNativeAuth extends CordovaPlugin {
       remainingAttempts(args, callbackContext);
     } else if (action.equals("getValue")) {
       getValue(args, callbackContext);
+    } else if (action.equals("getValues")) {
+      getValues(args, callbackContext);
     } else if (action.equals("getKeys")) {
       getKeys(args, callbackContext);
+    } else if (action.equals("getKeysWithPrefix")) {
+      getKeysWithPrefix(args, callbackContext);
+    } else if (action.equals("getValuesWithPrefix")) {
+      getValuesWithPrefix(args, callbackContext);
     } else if (action.equals("storeValue")) {
       storeValue(args, callbackContext);
+    } else if (action.equals("storeValues")) {
+      storeValues(args, callbackContext);
     } else if (action.equals("removeValue")) {
       removeValue(args, callbackContext);
+    } else if (action.equals("removeValues")) {
+      removeValues(args, callbackContext);
+    } else if (action.equals("removeValuesWithPrefix")) {
+      removeValuesWithPrefix(args, callbackContext);
+    } else if (action.equals("getBlob")) {
+      getBlob(args, callbackContext);
+    } else if (action.equals("storeBlob")) {
+      storeBlob(args, callbackContext);
+    } else if (action.equals("removeBlob")) {
+      removeBlob(args, callbackContext);
     } else if (action.equals("getUsername")) {
       getUsername(args, callbackContext);
     } else if (action.equals("lock")) {
@@ -92,9 +195,17 @@ public class IonicNativeAuth extends CordovaPlugin {
       setPasscode(args, callbackContext);
     } else if (action.equals("unlock")) {
       unlock(args, callbackContext);
+    } else if (action.equals("getMetrics")) {
+      getMetrics(args, callbackContext);
     }
+  }
 
-    return true;
+  private void onVaultActivity(JSONArray args) {
+    try {
+      getVaultFromArgs(args).onActivity();
+    } catch (VaultError e) {
+      // the action itself reports it
+    }
   }
 
   @Override
@@ -115,9 +226,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void setup(JSONArray args, final CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      mCurrentVault.addEventHandler(callbackContext);
-      mCurrentVault.sendConfigEvent();
+      IdentityVault vault = getVaultFromArgs(args);
+      vault.addEventHandler(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -125,8 +235,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void getConfig(JSONArray args, final CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.getConfig());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.getConfig());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -134,9 +244,9 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private  void close(JSONArray args, final CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       String handlerId = getPositionalArg(args, 1, "handlerId", String.class);
-      mCurrentVault.removeEventHandler(handlerId);
+      vault.removeEventHandler(handlerId);
       success(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
@@ -145,8 +255,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void clear(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      mCurrentVault.clear();
+      IdentityVault vault = getVaultFromArgs(args);
+      vault.clear();
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -155,8 +265,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isLocked(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.isLocked());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.isLocked());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -164,8 +274,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isLockedOutOfBiometrics(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mLockedOutOfBiometrics);
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, SystemClock.elapsedRealtime() < mBiometricLockoutEnd);
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -173,8 +283,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isInUse(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.isInUse());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.isInUse());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -182,8 +292,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void remainingAttempts(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.remainingAttempts());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.remainingAttempts());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -191,10 +301,22 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void getValue(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       String key = getPositionalArg(args, 1, "key", String.class);
-      Object val = mCurrentVault.getStoredValue(key);
-      success(callbackContext, val, key);
+      Object val = vault.getStoredValue(key);
+      if (!sendStreamed(callbackContext, val)) {
+        success(callbackContext, val, key);
+      }
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void getValues(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      JSONArray keys = getPositionalArg(args, 1, "keys", JSONArray.class);
+      success(callbackContext, vault.getValues(keys));
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -202,20 +324,51 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void getKeys(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      JSONArray val = mCurrentVault.getKeys();
+      IdentityVault vault = getVaultFromArgs(args);
+      JSONArray val = vault.getKeys();
       success(callbackContext, val);
     } catch (VaultError e) {
       error(callbackContext, e);
     }
   }
 
+  private void getKeysWithPrefix(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      String prefix = getPositionalArg(args, 1, "prefix", String.class);
+      success(callbackContext, vault.getKeysWithPrefix(prefix));
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void getValuesWithPrefix(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      String prefix = getPositionalArg(args, 1, "prefix", String.class);
+      success(callbackContext, vault.getValuesWithPrefix(prefix));
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
   private void storeValue(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       String key = getPositionalArg(args, 1, "key", String.class);
       Object val = args.opt(2);
-      mCurrentVault.storeValue(key, val);
+      vault.storeValue(key, val);
+      success(callbackContext);
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void storeValues(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      JSONObject values = getPositionalArg(args, 1, "values", JSONObject.class);
+      vault.storeValues(values);
       success(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
@@ -224,9 +377,80 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void removeValue(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
+      String key = getPositionalArg(args, 1, "key", String.class);
+      vault.removeValue(key);
+      success(callbackContext);
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void removeValues(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      JSONArray keys = getPositionalArg(args, 1, "keys", JSONArray.class);
+      vault.removeValues(keys);
+      success(callbackContext);
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void removeValuesWithPrefix(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      String prefix = getPositionalArg(args, 1, "prefix", String.class);
+      vault.removeValuesWithPrefix(prefix);
+      success(callbackContext);
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void getBlob(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      String key = getPositionalArg(args, 1, "key", String.class);
+      final ResultStream stream = new ResultStream(callbackContext);
+      boolean found = vault.readBlob(key, new VaultBlobStore.Reader() {
+        @Override
+        public void onStart(long length) throws VaultError {
+          stream.begin(ResultStream.TYPE_BLOB, length);
+        }
+
+        @Override
+        public void onData(byte[] data, int length) throws VaultError {
+          stream.write(data, 0, length);
+        }
+      });
+      if (found) {
+        stream.finish();
+      } else {
+        success(callbackContext);
+      }
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void storeBlob(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
+      String key = getPositionalArg(args, 1, "key", String.class);
+      byte[] data = getArrayBufferArg(args, 2, "data");
+      vault.storeBlob(key, data);
+      success(callbackContext);
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
+  private void removeBlob(JSONArray args, CallbackContext callbackContext) {
+    try {
+      IdentityVault vault = getVaultFromArgs(args);
       String key = getPositionalArg(args, 1, "key", String.class);
-      mCurrentVault.removeValue(key);
+      vault.removeBlob(key);
       success(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
@@ -235,8 +459,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void getUsername(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.getUsername());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.getUsername());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -244,18 +468,27 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void lock(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      mCurrentVault.lock(false);
+      IdentityVault vault = getVaultFromArgs(args);
+      vault.lock(false);
       success(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
     }
   }
 
+  private void getMetrics(JSONArray args, CallbackContext callbackContext) {
+    try {
+      boolean reset = getPositionalArg(args, 0, "reset", Boolean.class, false);
+      success(callbackContext, VaultMetrics.getInstance().toJSONObject(reset));
+    } catch (VaultError e) {
+      error(callbackContext, e);
+    }
+  }
+
   private void getBiometricType(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.getBiometricsType());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.getBiometricsType());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -263,8 +496,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void getAvailableHardware(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.getAvailableHardware());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.getAvailableHardware());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -272,28 +505,22 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isBiometricsAvailable(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.isBiometricsAvailable());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.isBiometricsAvailable());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
   }
 
   private void isBiometricsSupported(JSONArray args, CallbackContext callbackContext) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-      FingerprintManager fingerprintManager =
-              (FingerprintManager) this.cordova.getActivity().getSystemService(Context.FINGERPRINT_SERVICE);
-      success(callbackContext, fingerprintManager != null && fingerprintManager.isHardwareDetected());
-    } else {
-      success(callbackContext, false);
-    }
+    success(callbackContext, BiometricCapabilities.get(cordova.getActivity()).supported);
   }
 
   private void setBiometricsEnabled(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       boolean enabled = getPositionalArg(args, 1, "enabled", Boolean.class);
-      mCurrentVault.setBiometricsEnabled(enabled);
+      vault.setBiometricsEnabled(enabled);
       success(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
@@ -302,8 +529,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isBiometricsEnabled(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.isBiometricsEnabled());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.isBiometricsEnabled());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -311,9 +538,9 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void setSecureStorageModeEnabled(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       boolean enabled = getPositionalArg(args, 1, "enabled", Boolean.class);
-      mCurrentVault.setSecureStorageModeEnabled(enabled);
+      vault.setSecureStorageModeEnabled(enabled);
       success(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
@@ -322,8 +549,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isSecureStorageModeEnabled(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.isSecureStorageModeEnabled());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.isSecureStorageModeEnabled());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -331,8 +558,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isPasscodeEnabled(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.isPasscodeEnabled());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.isPasscodeEnabled());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -340,8 +567,8 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void isPasscodeSetupNeeded(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
-      success(callbackContext, mCurrentVault.isPasscodeSetupNeeded());
+      IdentityVault vault = getVaultFromArgs(args);
+      success(callbackContext, vault.isPasscodeSetupNeeded());
     } catch (VaultError e) {
       error(callbackContext, e);
     }
@@ -349,9 +576,9 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void setPasscodeEnabled(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       boolean enabled = getPositionalArg(args, 1, "enabled", Boolean.class);
-      mCurrentVault.setPasscodeEnabled(enabled);
+      vault.setPasscodeEnabled(enabled);
       success(callbackContext);
     } catch (VaultError e) {
       error(callbackContext, e);
@@ -360,15 +587,15 @@ public class IonicNativeAuth extends CordovaPlugin {
 
   private void setPasscode(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       String passcode = getPositionalArg(args, 1, "passcode", String.class, null);
       if (passcode != null) {
-        mCurrentVault.setPasscode(passcode);
+        vault.setPasscode(passcode);
         success(callbackContext);
       } else {
         AuthPINDialog.PasscodeDialogCallback callback = new PasscodeCallback(
-                mCurrentVault, callbackContext, true);
-        mCurrentVault.setPasscode(callback);
+                vault, callbackContext, true);
+        vault.setPasscode(callback);
       }
     } catch (VaultError e) {
       error(callbackContext, e);
@@ -402,7 +629,12 @@ public class IonicNativeAuth extends CordovaPlugin {
     public void onPasscodeSuccess(String passcode) {
       if (passcode == null) {
         error(callbackContext, new VaultError("no passcode returned"));
+        return;
       }
+      dispatch(mVault.config.descriptor.getUniqueId(), false, callbackContext, () -> storeOrVerifyPasscode(passcode));
+    }
+
+    private void storeOrVerifyPasscode(String passcode) {
       try {
         if (setPasscode) {
           mVault.setPasscode(passcode);
@@ -412,52 +644,115 @@ public class IonicNativeAuth extends CordovaPlugin {
         mVault.unlock(passcode);
         success(callbackContext);
       } catch (VaultError e) {
-        error(callbackContext, e);
+        error(callbackContext, mVault, e);
       }
     }
   }
 
   private void unlock(JSONArray args, CallbackContext callbackContext) {
     try {
-      setCurrentVaultFromArgs(args);
+      IdentityVault vault = getVaultFromArgs(args);
       boolean withPasscode = getPositionalArg(args, 1, "withPasscode", Boolean.class, false);
 
+      if (vault.unlockFromGroup()) {
+        // unlocked along with the vault of its unlock group, no need to ask the user again
+        success(callbackContext);
+        return;
+      }
       if (withPasscode) {
         String passcode = getPositionalArg(args, 2, "passcode", String.class, null);
         if (passcode != null) {
-          unlockWithPasscode(callbackContext, passcode);
+          unlockWithPasscode(vault, callbackContext, passcode);
         } else {
-          unlockWithDialog(callbackContext);
+          unlockWithDialog(vault, callbackContext);
         }
       } else {
-        unlockWithBio(callbackContext);
+        unlockWithBio(vault, callbackContext);
       }
     } catch (VaultError e) {
       error(callbackContext, e);
     }
   }
 
-  private void unlockWithPasscode(CallbackContext callbackContext, String passcode) {
+  private void unlockWithPasscode(IdentityVault vault, CallbackContext callbackContext, String passcode) {
     try {
-      mCurrentVault.unlock(passcode);
+      vault.unlock(passcode);
       success(callbackContext);
     } catch (VaultError e) {
-      error(callbackContext, e);
+      error(callbackContext, vault, e);
     }
   }
 
-  private void unlockWithDialog(CallbackContext callbackContext) {
+  private void unlockWithDialog(IdentityVault vault, CallbackContext callbackContext) {
       try {
-        AuthPINDialog.PasscodeDialogCallback callback = new PasscodeCallback(mCurrentVault, callbackContext, false);
-        mCurrentVault.unlock(callback);
+        AuthPINDialog.PasscodeDialogCallback callback = new PasscodeCallback(vault, callbackContext, false);
+        vault.unlock(callback);
       } catch (VaultError e) {
         error(callbackContext, e);
       }
   }
 
-  private void unlockWithBio(CallbackContext callbackContext) {
+  private void unlockWithBio(IdentityVault vault, CallbackContext callbackContext) {
+    Activity activity = cordova.getActivity();
+    if (!(activity instanceof FragmentActivity) || VaultAppConfig.getInstance().allowSystemPinFallback) {
+      // the prompt needs a FragmentActivity, and the system PIN fallback needs BiometricActivity's
+      // workaround on Android Q
+      unlockWithBiometricActivity(vault, callbackContext);
+      return;
+    }
+    Cipher cipher;
+    try {
+      cipher = vault.getBiometricUnlockCipher();
+    } catch (VaultError e) {
+      error(callbackContext, vault, e);
+      return;
+    }
+    vault.doTheLifecycles = false;
+    long promptStart = VaultMetrics.now();
+    String vaultId = vault.config.descriptor.getUniqueId();
+    activity.runOnUiThread(() -> VaultBiometricPrompt.authenticate((FragmentActivity) activity, cipher, new VaultBiometricPrompt.Callback() {
+      @Override
+      public void onSuccess(Cipher authorizedCipher) {
+        VaultMetrics.getInstance().record(VaultMetrics.BIOMETRIC_PROMPT, promptStart, VaultMetrics.SUCCESS);
+        dispatch(vaultId, false, callbackContext, () -> onBiometricPromptResult(vault, callbackContext, authorizedCipher, null));
+      }
+
+      @Override
+      public void onError(VaultError error) {
+        VaultMetrics.getInstance().record(VaultMetrics.BIOMETRIC_PROMPT, promptStart, VaultErrors.getCode(error));
+        dispatch(vaultId, false, callbackContext, () -> onBiometricPromptResult(vault, callbackContext, null, error));
+      }
+    }));
+  }
+
+  private void onBiometricPromptResult(IdentityVault vault, CallbackContext callbackContext, Cipher cipher, VaultError promptError) {
+    vault.doTheLifecycles = true;
+    mBiometricLockoutEnd = 0;
+
+    if (promptError != null) {
+      if (VaultErrors.getCode(promptError) == VaultErrors.ERR_TOO_MANY_FAILED_ATTEMPTS) {
+        mBiometricLockoutEnd = SystemClock.elapsedRealtime() + BIOMETRIC_LOCKOUT_DURATION;
+      }
+      error(callbackContext, vault, promptError);
+      return;
+    }
+    try {
+      if (cipher != null) {
+        vault.forceUnlock(cipher);
+      } else {
+        vault.forceUnlock();
+      }
+      success(callbackContext);
+    } catch (VaultError e) {
+      error(callbackContext, vault, e);
+    }
+  }
+
+  private void unlockWithBiometricActivity(IdentityVault vault, CallbackContext callbackContext) {
     mLastCallbackContext = callbackContext;
-    mCurrentVault.doTheLifecycles = false;
+    mPendingBiometricVault = vault;
+    mPendingBiometricVault.doTheLifecycles = false;
+    mBiometricPromptStart = VaultMetrics.now();
     cordova.getActivity().runOnUiThread(() -> {
       Intent intent = new Intent(cordova.getActivity().getApplicationContext(), BiometricActivity.class);
       this.cordova.startActivityForResult(this, intent, REQUEST_CODE_BIOMETRIC);
@@ -468,21 +763,24 @@ public class IonicNativeAuth extends CordovaPlugin {
   public void onActivityResult(int requestCode, int resultCode, Intent intent) {
     super.onActivityResult(requestCode, resultCode, intent);
 
-    if (requestCode == REQUEST_CODE_BIOMETRIC) {
-      onBiometricActivityResult(resultCode, intent);
+    if (requestCode == REQUEST_CODE_BIOMETRIC && mPendingBiometricVault != null) {
+      VaultMetrics.getInstance().record(VaultMetrics.BIOMETRIC_PROMPT, mBiometricPromptStart, getBiometricResultCode(resultCode, intent));
+      IdentityVault vault = mPendingBiometricVault;
+      dispatch(vault.config.descriptor.getUniqueId(), false, mLastCallbackContext, () -> onBiometricActivityResult(vault, resultCode, intent));
     }
   }
 
-  private void onBiometricActivityResult(int resultCode, Intent intent) {
-    mCurrentVault.doTheLifecycles = true;
-    mLockedOutOfBiometrics = false;
+  private void onBiometricActivityResult(IdentityVault vault, int resultCode, Intent intent) {
+    mPendingBiometricVault = null;
+    vault.doTheLifecycles = true;
+    mBiometricLockoutEnd = 0;
 
     if (resultCode == Activity.RESULT_OK) {
       try {
-        mCurrentVault.forceUnlock();
+        vault.forceUnlock();
         success(mLastCallbackContext);
       } catch (VaultError e) {
-        error(mLastCallbackContext, e);
+        error(mLastCallbackContext, vault, e);
       }
     } else if (intent != null) {
       Bundle extras = intent.getExtras();
@@ -491,19 +789,9 @@ public class IonicNativeAuth extends CordovaPlugin {
           JSONObject jsonError = new JSONObject(extras.getString("error", VaultErrors.toJSON(new VaultError()).toString()));
           int code = jsonError.getInt("code");
           if (code == VaultErrors.ERR_TOO_MANY_FAILED_ATTEMPTS) {
-            mLockedOutOfBiometrics = true;
-
-            // Biometrics lockout lasts for 30 seconds
-            // @see https://developer.android.com/reference/android/hardware/biometrics/BiometricPrompt#BIOMETRIC_ERROR_LOCKOUT
-            Timer timer = new Timer();
-            timer.schedule(new TimerTask() {
-              @Override
-              public void run() {
-                mLockedOutOfBiometrics = false;
-              }
-            }, 30 * 1000);
+            mBiometricLockoutEnd = SystemClock.elapsedRealtime() + BIOMETRIC_LOCKOUT_DURATION;
           }
-          error(mLastCallbackContext, jsonError);
+          error(mLastCallbackContext, vault, jsonError);
         } catch (JSONException e) {
           error(mLastCallbackContext, new VaultError());
         }
@@ -515,6 +803,24 @@ public class IonicNativeAuth extends CordovaPlugin {
     }
   }
 
+  private static int getBiometricResultCode(int resultCode, Intent intent) {
+    if (resultCode == Activity.RESULT_OK) {
+      return VaultMetrics.SUCCESS;
+    }
+    if (intent == null) {
+      return VaultErrors.ERR_USER_CANCELED_AUTH;
+    }
+    Bundle extras = intent.getExtras();
+    if (extras == null) {
+      return VaultErrors.ERR_UNHANDLED;
+    }
+    try {
+      return new JSONObject(extras.getString("error", "")).getInt("code");
+    } catch (JSONException e) {
+      return VaultErrors.ERR_UNHANDLED;
+    }
+  }
+
   private <T extends Object> T getPositionalArg(JSONArray args, int index, String name, Class<T> type) throws InvalidArgumentsError {
     if (args.isNull(index)) {
       throw new InvalidArgumentsError(name + " missing");
@@ -539,10 +845,32 @@ public class IonicNativeAuth extends CordovaPlugin {
     }
   }
 
-  private void setCurrentVaultFromArgs(JSONArray args) throws VaultError {
+  private byte[] getArrayBufferArg(JSONArray args, int index, String name) throws InvalidArgumentsError {
+    // cordova passes ArrayBuffer arguments as base64 strings
+    String encoded = getPositionalArg(args, index, name, String.class);
+    try {
+      return Base64.decode(encoded, Base64.DEFAULT);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidArgumentsError(name + " must be an ArrayBuffer");
+    }
+  }
+
+  private String getVaultIdFromArgs(JSONArray args) {
+    JSONObject options = args.optJSONObject(0);
+    if (options == null) {
+      return "";
+    }
+    try {
+      return new VaultDescriptor(options).getUniqueId();
+    } catch (VaultError e) {
+      return "";
+    }
+  }
+
+  private IdentityVault getVaultFromArgs(JSONArray args) throws VaultError {
     try {
       JSONObject options = args.getJSONObject(0);
-      mCurrentVault = IdentityVault.getFromRegistryOrCreate(cordova.getActivity(), options);
+      return IdentityVault.getFromRegistryOrCreate(cordova.getActivity(), options);
     } catch (JSONException ex) {
       throw  new InvalidArgumentsError("missing vaultId or username");
     }
@@ -580,6 +908,30 @@ public class IonicNativeAuth extends CordovaPlugin {
     callbackContext.sendPluginResult(result);
   }
 
+  /**
+   * Stream values too large to send as one result
+   *
+   * @return false if the value is small enough to send whole
+   */
+  private boolean sendStreamed(final CallbackContext callbackContext, Object val) throws VaultError {
+    String type;
+    String text;
+    if (val instanceof String) {
+      type = ResultStream.TYPE_STRING;
+      text = (String) val;
+    } else if (val instanceof JSONObject || val instanceof JSONArray) {
+      type = ResultStream.TYPE_JSON;
+      text = val.toString();
+    } else {
+      return false;
+    }
+    if (text.length() < ResultStream.CHUNK_SIZE) {
+      return false;
+    }
+    new ResultStream(callbackContext).sendString(type, text);
+    return true;
+  }
+
   private void success(final CallbackContext callbackContext, Object val, String key) {
     JSONObject ret = new JSONObject();
     try {
@@ -627,24 +979,31 @@ public class IonicNativeAuth extends CordovaPlugin {
   }
 
   private void error(final CallbackContext callbackContext, VaultError error) {
-    JSONObject jsonError = VaultErrors.toJSON(error);
-    error(callbackContext, jsonError);
+    error(callbackContext, VaultErrors.toJSON(error));
+  }
+
+  private void error(final CallbackContext callbackContext, IdentityVault vault, VaultError error) {
+    error(callbackContext, vault, VaultErrors.toJSON(error));
+  }
+
+  private void error(final CallbackContext callbackContext, IdentityVault vault, JSONObject error) {
+    handleVaultError(vault, error);
+    error(callbackContext, error);
   }
 
   private void error(final CallbackContext callbackContext, JSONObject error) {
-    handleVaultError(error);
     PluginResult result = new PluginResult(PluginResult.Status.ERROR, error);
     result.setKeepCallback(false);
     callbackContext.sendPluginResult(result);
   }
 
-  private void handleVaultError(JSONObject error) {
+  private void handleVaultError(IdentityVault vault, JSONObject error) {
     try {
       int code = error.getInt("code");
 
       if (code == VaultErrors.ERR_TOO_MANY_FAILED_ATTEMPTS) {
-        if (mCurrentVault.config.appConfig.shouldClearVaultAfterTooManyFailedAttempts) {
-          mCurrentVault.clear();
+        if (vault.config.appConfig.shouldClearVaultAfterTooManyFailedAttempts) {
+          vault.clear();
         }
       }
     } catch (JSONException | VaultError e) {
@@ -9,109 +9,403 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 import javax.crypto.SecretKey;
 
+/*
+    Every stored value is encrypted and persisted as its own record ("R:<id>"). A manifest record
+    ("KEYS") maps the user facing keys to record ids, so reading or overwriting a value only touches
+    that value's record and the manifest is only rewritten when the set of keys changes. The decrypted
+    manifest is kept sorted, so keys sharing a prefix are found without scanning the rest. Records live
+    in a VaultStorage, the vault's own SharedPreferences unless the factory picked another backend.
+    Values are encoded with VaultValueCodec.
 
+    Vaults written by older versions keep everything in a single "DATA" blob, which is split into
+    records the first time the vault is accessed while unlocked.
+
+    Re-keying copies the records in small chunks into the next record generation ("R<gen>:<id>")
+    under the new key, with a journal tracking the copy. The old generation stays readable until a
+    single final commit switches the manifest and validation key over, so a crash part way through
+    never loses data and a re-key to the same key picks up where it left off.
+ */
 public class IonicSharedPreferenceVault extends StandardSharedPreferenceVault implements IonicVault {
     final private String TAG = "IonicSPVault";
     final private IonicKeyStorage mKeyStorage;
     final private String DATA_KEY = "DATA";
     final private String VALIDATION_KEY = "ValidKey";
+    final private String MANIFEST_KEY = "KEYS";
+    final private String MANIFEST_KEYS = "keys";
+    final private String MANIFEST_NEXT_ID = "next";
+    final private String MANIFEST_GENERATION = "gen";
+    final private String RECORD_KEY = "R:%d";
+    final private String GENERATION_RECORD_KEY = "R%d:%d";
+    final private String JOURNAL_KEY = "REKEY";
+    final private String JOURNAL_GENERATION = "gen";
+    final private String JOURNAL_COPIED = "copied";
+    final private int REKEY_CHUNK_SIZE = 32;
     private Context mContext;
+    final private VaultStorage mStorage;
+
+    // decrypted manifest, only held while the vault is unlocked
+    private TreeMap<String, Long> mManifest;
+    private long mNextRecordId;
+    private int mGeneration;
+    private boolean mRekeyPending;
 
     IonicSharedPreferenceVault(Context context, IonicKeyStorage keyStorage, String prefFileName, String transform, boolean enableExceptions) {
+        this(context, keyStorage, prefFileName, transform, enableExceptions, null);
+    }
+
+    IonicSharedPreferenceVault(Context context, IonicKeyStorage keyStorage, String prefFileName, String transform, boolean enableExceptions, VaultStorage storage) {
+        this(context, keyStorage, prefFileName, transform, enableExceptions, storage, false);
+    }
+
+    /**
+     * @param storage    where records are kept, null keeps them in this vault's own preferences
+     * @param gcmRecords write records to the preferences with GcmPreferenceVaultStorage rather than
+     *                   through this vault's own encryption
+     */
+    IonicSharedPreferenceVault(Context context, IonicKeyStorage keyStorage, String prefFileName, String transform, boolean enableExceptions, VaultStorage storage, boolean gcmRecords) {
         super(context, keyStorage, prefFileName, transform, enableExceptions);
         mKeyStorage = keyStorage;
         mContext = context;
+        if (storage != null) {
+            mStorage = storage;
+        } else if (gcmRecords) {
+            mStorage = new GcmPreferenceVaultStorage(this, context.getSharedPreferences(prefFileName, Context.MODE_PRIVATE), context, keyStorage);
+        } else {
+            mStorage = new PreferenceVaultStorage(this);
+        }
     }
 
     @Override
     public void storeValue(String key, Object obj) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
-        JSONObject data;
-        try {
-            data = getDataObj();
-        } catch (VaultError e) {
-            Log.d(TAG, "Clearing malformed data obj in vault.");
-            data = new JSONObject();
+        if (obj == null || obj == JSONObject.NULL) {
+            removeValue(key);
+            return;
         }
-        try {
-            data.put(key, obj);
-            if (data.isNull(key)) {
-                data.remove(key);
-            }
-        } catch (JSONException e) {
-            throw new VaultError("Error storing value");
+        Map<String, Long> manifest = getManifest();
+        VaultStorage.Editor editor = mStorage.edit();
+        Long recordId = manifest.get(key);
+        boolean isNewKey = recordId == null;
+        if (isNewKey) {
+            recordId = mNextRecordId;
         }
-        storeDataObj(data);
+        putRecord(editor, recordId, obj);
+        if (isNewKey) {
+            mNextRecordId++;
+            manifest.put(key, recordId);
+            putManifest(editor);
+        }
+        commit(editor);
     }
 
     @Override
     public void removeValue(String key) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
-        JSONObject data;
-        try {
-            data = getDataObj();
-        } catch (VaultError e) {
-            Log.d(TAG, "Clearing malformed data obj in vault.");
-            data = new JSONObject();
-        }
+        Map<String, Long> manifest = getManifest();
+        Long recordId = manifest.remove(key);
+        if (recordId == null) { return; }
+        VaultStorage.Editor editor = mStorage.edit();
+        removeRecord(editor, recordId);
+        putManifest(editor);
+        commit(editor);
+    }
 
-        data.remove(key);
+    /*
+        Apply a set of changes with a single editor commit. A null value removes the key. Records are
+        encoded before the manifest is touched so a value that fails to encode leaves the vault as it was.
+     */
+    @Override
+    public void storeValues(JSONObject values) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        Map<String, Long> manifest = getManifest();
+        VaultStorage.Editor editor = mStorage.edit();
+        HashMap<String, Long> addedKeys = new HashMap<>();
+        List<String> removedKeys = new ArrayList<>();
+        long nextRecordId = mNextRecordId;
+        Iterator<String> keys = values.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = values.opt(key);
+            Long recordId = manifest.get(key);
+            if (value == null || value == JSONObject.NULL) {
+                if (recordId != null) {
+                    removeRecord(editor, recordId);
+                    removedKeys.add(key);
+                }
+                continue;
+            }
+            if (recordId == null) {
+                recordId = nextRecordId++;
+                addedKeys.put(key, recordId);
+            }
+            putRecord(editor, recordId, value);
+        }
+        if (!addedKeys.isEmpty() || !removedKeys.isEmpty()) {
+            manifest.putAll(addedKeys);
+            manifest.keySet().removeAll(removedKeys);
+            mNextRecordId = nextRecordId;
+            putManifest(editor);
+        }
+        commit(editor);
+    }
 
-        storeDataObj(data);
+    @Override
+    public void removeValues(JSONArray keys) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        Map<String, Long> manifest = getManifest();
+        VaultStorage.Editor editor = mStorage.edit();
+        boolean changed = false;
+        for (int i = 0; i < keys.length(); i++) {
+            Long recordId = manifest.remove(keys.optString(i));
+            if (recordId != null) {
+                removeRecord(editor, recordId);
+                changed = true;
+            }
+        }
+        if (!changed) { return; }
+        putManifest(editor);
+        commit(editor);
     }
 
-    private void storeDataObj(JSONObject data) throws VaultError {
+    @Override
+    public JSONObject getValues(JSONArray keys) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
-        this.edit().putString(DATA_KEY, data.toString()).apply();
+        Map<String, Long> manifest = getManifest();
+        JSONObject values = new JSONObject();
+        try {
+            for (int i = 0; i < keys.length(); i++) {
+                String key = keys.optString(i);
+                Long recordId = manifest.get(key);
+                Object value = recordId == null ? null : getRecord(recordId);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        } catch (JSONException e) {
+            throw new VaultError("Error reading stored values");
+        }
+        return values;
     }
 
     @Override
     public Object getStoredValue(String key) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
-        JSONObject data = getDataObj();
-        return data.opt(key);
+        Long recordId = getManifest().get(key);
+        if (recordId == null) {
+            return null;
+        }
+        return getRecord(recordId);
     }
 
     @Override
     public JSONArray getKeys() throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
-        JSONObject data = getDataObj();
         JSONArray returnKeys = new JSONArray();
-        Iterator<String> keys = data.keys();
-        while (keys.hasNext()) {
-            returnKeys.put(keys.next());
+        for (String key : getManifest().keySet()) {
+            returnKeys.put(key);
+        }
+        return returnKeys;
+    }
+
+    @Override
+    public JSONArray getKeysWithPrefix(String prefix) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        JSONArray returnKeys = new JSONArray();
+        for (String key : getPrefixRange(prefix).keySet()) {
+            returnKeys.put(key);
         }
         return returnKeys;
     }
 
+    @Override
+    public JSONArray removeValuesWithPrefix(String prefix) throws VaultError {
+        if (isLocked()) { throw new VaultLockedError(); }
+        Map<String, Long> range = getPrefixRange(prefix);
+        JSONArray removedKeys = new JSONArray();
+        if (range.isEmpty()) { return removedKeys; }
+        VaultStorage.Editor editor = mStorage.edit();
+        for (Map.Entry<String, Long> entry : range.entrySet()) {
+            removeRecord(editor, entry.getValue());
+            removedKeys.put(entry.getKey());
+        }
+        range.clear();
+        putManifest(editor);
+        commit(editor);
+        return removedKeys;
+    }
+
+    // a view of the manifest entries whose keys start with prefix
+    private Map<String, Long> getPrefixRange(String prefix) throws VaultError {
+        NavigableMap<String, Long> manifest = getManifest();
+        // every key starting with prefix sorts before prefix with its last char bumped (chars that
+        // can't be bumped are dropped first), with none to bump the range runs to the end
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return manifest.tailMap(prefix, true);
+        }
+        String upper = prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+        return manifest.subMap(prefix, true, upper, false);
+    }
+
     @Override
     public JSONObject getDataObj() throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
+        JSONObject data = new JSONObject();
         try {
-            String dataString = this.getString(DATA_KEY, null);
-            if (dataString == null) {
-                return new JSONObject();
+            for (Map.Entry<String, Long> entry : getManifest().entrySet()) {
+                Object value = getRecord(entry.getValue());
+                if (value != null) {
+                    data.put(entry.getKey(), value);
+                }
             }
-            return new JSONObject(dataString);
         } catch (JSONException e) {
-            return new JSONObject();
+            throw new VaultError("Error reading stored values");
         }
+        return data;
+    }
+
+    private void putDataObj(VaultStorage.Editor editor, JSONObject data) throws VaultError {
+        Map<String, Long> manifest = getManifest();
+        Iterator<String> keys = data.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = data.opt(key);
+            if (value == null || value == JSONObject.NULL) { continue; }
+            Long recordId = manifest.get(key);
+            if (recordId == null) {
+                recordId = mNextRecordId++;
+                manifest.put(key, recordId);
+            }
+            putRecord(editor, recordId, value);
+        }
+        putManifest(editor);
+    }
+
+    // synchronized so concurrent readers of a vault load the manifest once
+    private synchronized NavigableMap<String, Long> getManifest() throws VaultError {
+        if (mManifest != null) {
+            return mManifest;
+        }
+        mManifest = new TreeMap<>();
+        mNextRecordId = 0;
+        mGeneration = 0;
+        mRekeyPending = mStorage.contains(JOURNAL_KEY);
+        String manifestString = mStorage.getString(MANIFEST_KEY);
+        if (manifestString != null) {
+            try {
+                JSONObject manifest = new JSONObject(manifestString);
+                JSONObject keys = manifest.getJSONObject(MANIFEST_KEYS);
+                Iterator<String> it = keys.keys();
+                while (it.hasNext()) {
+                    String key = it.next();
+                    mManifest.put(key, keys.getLong(key));
+                }
+                mNextRecordId = manifest.getLong(MANIFEST_NEXT_ID);
+                mGeneration = manifest.optInt(MANIFEST_GENERATION, 0);
+            } catch (JSONException e) {
+                Log.d(TAG, "Clearing malformed manifest in vault.");
+                mManifest.clear();
+                mNextRecordId = 0;
+                mGeneration = 0;
+            }
+        }
+        if (mStorage.contains(DATA_KEY)) {
+            migrateLegacyData();
+        }
+        return mManifest;
+    }
+
+    private void migrateLegacyData() throws VaultError {
+        JSONObject legacyData;
+        try {
+            String dataString = mStorage.getString(DATA_KEY);
+            legacyData = dataString == null ? new JSONObject() : new JSONObject(dataString);
+        } catch (JSONException e) {
+            Log.d(TAG, "Clearing malformed data obj in vault.");
+            legacyData = new JSONObject();
+        }
+        VaultStorage.Editor editor = mStorage.edit();
+        putDataObj(editor, legacyData);
+        editor.remove(DATA_KEY);
+        commit(editor);
+    }
+
+    /*
+        Every change to the manifest is made before its editor is committed, the manifest is loaded
+        again from what was stored when a commit fails.
+     */
+    private void commit(VaultStorage.Editor editor) throws VaultError {
+        if (!editor.commit()) {
+            dropManifest();
+            throw new VaultError("Error storing value");
+        }
+    }
+
+    private void putManifest(VaultStorage.Editor editor) throws VaultError {
+        try {
+            JSONObject manifest = new JSONObject();
+            manifest.put(MANIFEST_KEYS, new JSONObject(mManifest));
+            manifest.put(MANIFEST_NEXT_ID, mNextRecordId);
+            manifest.put(MANIFEST_GENERATION, mGeneration);
+            editor.putString(MANIFEST_KEY, manifest.toString());
+        } catch (JSONException e) {
+            throw new VaultError("Error storing value");
+        }
+    }
+
+    private void putRecord(VaultStorage.Editor editor, long recordId, Object obj) throws VaultError {
+        editor.putBytes(getRecordName(recordId), VaultValueCodec.encode(obj));
+        if (mRekeyPending) {
+            // the copy from an interrupted re-key is stale now
+            editor.remove(getRecordName(mGeneration + 1, recordId));
+        }
+    }
+
+    private void removeRecord(VaultStorage.Editor editor, long recordId) {
+        editor.remove(getRecordName(recordId));
+        if (mRekeyPending) {
+            editor.remove(getRecordName(mGeneration + 1, recordId));
+        }
+    }
+
+    private Object getRecord(long recordId) {
+        return VaultValueCodec.decode(mStorage.getBytes(getRecordName(recordId)));
+    }
+
+    private String getRecordName(long recordId) {
+        return getRecordName(mGeneration, recordId);
+    }
+
+    private String getRecordName(int generation, long recordId) {
+        if (generation == 0) {
+            return String.format(RECORD_KEY, recordId);
+        }
+        return String.format(GENERATION_RECORD_KEY, generation, recordId);
     }
 
     private void setValidationKey() {
-       this.edit().putString(VALIDATION_KEY, VALIDATION_KEY).apply();
+       mStorage.edit().putString(VALIDATION_KEY, VALIDATION_KEY).apply();
     }
 
     @Override
     public void validateLogin() throws AuthFailedError {
         try {
-            String storedValidation = this.getString(VALIDATION_KEY, null);
+            String storedValidation = mStorage.getString(VALIDATION_KEY);
             if (storedValidation == null || !storedValidation.equals(VALIDATION_KEY)) {
-                mKeyStorage.lock();
+                lock();
                 throw new AuthFailedError();
             }
         } catch (Exception e) {
@@ -119,6 +413,13 @@ public class IonicSharedPreferenceVault extends StandardSharedPreferenceVault im
         }
     }
 
+    @Override
+    public void clearStorage() {
+        dropManifest();
+        mStorage.clear();
+        super.clearStorage();
+    }
+
     @Override
     public void rekeyStorage(SecretKey secretKey) {
         clearStorage();
@@ -133,9 +434,15 @@ public class IonicSharedPreferenceVault extends StandardSharedPreferenceVault im
 
     @Override
     public void lock() {
+        dropManifest();
         mKeyStorage.lock();
     }
 
+    // under the same monitor as getManifest(), so a reader loading it can't miss the vault locking
+    private synchronized void dropManifest() {
+        mManifest = null;
+    }
+
     @Override
     public SecretKey getKey() {
         return mKeyStorage.loadKey(mContext);
@@ -144,8 +451,101 @@ public class IonicSharedPreferenceVault extends StandardSharedPreferenceVault im
     @Override
     public void restoreVaultWithNewKey(SecretKey key) throws VaultError {
         if (isLocked()) { throw new VaultLockedError(); }
-        JSONObject previousData = getDataObj();
-        rekeyStorage(key);
-        storeDataObj(previousData);
+        Map<String, Long> manifest = getManifest();
+        ArrayList<Long> recordIds = new ArrayList<>(manifest.values());
+        SecretKey previousKey = getKey();
+        int nextGeneration = mGeneration + 1;
+        try {
+            int copied = startRekeyJournal(key, previousKey, nextGeneration, recordIds);
+            ArrayList<Long> chunk = new ArrayList<>(REKEY_CHUNK_SIZE);
+            ArrayList<byte[]> values = new ArrayList<>(REKEY_CHUNK_SIZE);
+            for (int i = 0; i < recordIds.size(); i += REKEY_CHUNK_SIZE) {
+                chunk.clear();
+                values.clear();
+                // read a chunk under the current key, skipping records an earlier attempt already copied
+                for (Long recordId : recordIds.subList(i, Math.min(i + REKEY_CHUNK_SIZE, recordIds.size()))) {
+                    if (mStorage.contains(getRecordName(nextGeneration, recordId))) { continue; }
+                    chunk.add(recordId);
+                    values.add(mStorage.getBytes(getRecordName(recordId)));
+                }
+                if (chunk.isEmpty()) { continue; }
+                copied += chunk.size();
+
+                setKey(key);
+                VaultStorage.Editor editor = mStorage.edit();
+                for (int j = 0; j < chunk.size(); j++) {
+                    if (values.get(j) != null) {
+                        editor.putBytes(getRecordName(nextGeneration, chunk.get(j)), values.get(j));
+                    }
+                }
+                putJournal(editor, nextGeneration, copied);
+                commit(editor);
+                setKey(previousKey);
+            }
+
+            // switch over to the new generation in a single commit
+            setKey(key);
+            VaultStorage.Editor editor = mStorage.edit();
+            for (Long recordId : recordIds) {
+                editor.remove(getRecordName(recordId));
+            }
+            mGeneration = nextGeneration;
+            putManifest(editor);
+            editor.putString(VALIDATION_KEY, VALIDATION_KEY);
+            editor.remove(JOURNAL_KEY);
+            commit(editor);
+            mRekeyPending = false;
+        } catch (VaultError e) {
+            setKey(previousKey);
+            throw e;
+        } catch (RuntimeException e) {
+            setKey(previousKey);
+            throw new VaultError("Error re-keying vault: " + e.getLocalizedMessage());
+        }
+    }
+
+    /*
+        Returns how many records an interrupted re-key to the same key and generation already copied,
+        or clears the leftovers of an attempt that can't be resumed and starts a new journal.
+     */
+    private int startRekeyJournal(SecretKey key, SecretKey previousKey, int generation, List<Long> recordIds) throws VaultError {
+        if (mRekeyPending) {
+            setKey(key);
+            try {
+                JSONObject journal = new JSONObject(mStorage.getString(JOURNAL_KEY));
+                if (journal.getInt(JOURNAL_GENERATION) == generation) {
+                    Log.d(TAG, "Resuming interrupted re-key.");
+                    return journal.getInt(JOURNAL_COPIED);
+                }
+            } catch (Exception e) {
+                // written under a different key, nothing to resume
+            } finally {
+                setKey(previousKey);
+            }
+        }
+
+        setKey(key);
+        VaultStorage.Editor editor = mStorage.edit();
+        if (mRekeyPending) {
+            for (Long recordId : recordIds) {
+                editor.remove(getRecordName(generation, recordId));
+            }
+        }
+        putJournal(editor, generation, 0);
+        commit(editor);
+        setKey(previousKey);
+        mRekeyPending = true;
+        return 0;
+    }
+
+    private void putJournal(VaultStorage.Editor editor, int generation, int copied) throws VaultError {
+        try {
+            JSONObject journal = new JSONObject();
+            journal.put(JOURNAL_GENERATION, generation);
+            journal.put(JOURNAL_COPIED, copied);
+            editor.putString(JOURNAL_KEY, journal.toString());
+        } catch (JSONException e) {
+            throw new VaultError("Error storing re-key journal");
+        }
     }
 }
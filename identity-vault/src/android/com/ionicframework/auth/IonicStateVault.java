@@ -5,25 +5,44 @@ import com.bottlerocketstudios.vault.SharedPreferenceVault;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    The encrypted config vault holding the VaultState of every vault. One instance is shared by all
+    vaults, each state is decrypted the first time it's read and served from memory afterwards.
+ */
 public class IonicStateVault {
+    private static final Object MISSING_STATE = new Object();
 
     private SharedPreferenceVault mVault;
+    // encoded state per vault, MISSING_STATE when the vault has none stored
+    final private ConcurrentHashMap<String, Object> mSnapshot = new ConcurrentHashMap<>();
 
     IonicStateVault(SharedPreferenceVault vault) {
         mVault = vault;
     }
 
     public void storeState(String key, JSONObject obj) {
-        mVault.edit().putString(key, obj.toString()).apply();
+        storeState(key, obj.toString());
+    }
+
+    public void storeState(String key, String encodedState) {
+        mSnapshot.put(key, encodedState);
+        mVault.edit().putString(key, encodedState).apply();
     }
 
     public JSONObject getState(String key) {
-        String val = mVault.getString(key, null);
+        Object val = mSnapshot.get(key);
         if (val == null) {
+            String stored = mVault.getString(key, null);
+            val = stored == null ? MISSING_STATE : stored;
+            mSnapshot.putIfAbsent(key, val);
+        }
+        if (val == MISSING_STATE) {
             return null;
         }
         try {
-            return new JSONObject(val);
+            return new JSONObject((String) val);
         } catch (JSONException e) {
             return null;
         }
@@ -15,10 +15,20 @@ public interface IonicVault  extends SharedPreferenceVault {
 
     void removeValue(String key) throws VaultError;
 
+    void storeValues(JSONObject values) throws VaultError;
+
+    void removeValues(JSONArray keys) throws VaultError;
+
     Object getStoredValue(String key) throws VaultError;
 
+    JSONObject getValues(JSONArray keys) throws VaultError;
+
     JSONArray getKeys() throws VaultError;
 
+    JSONArray getKeysWithPrefix(String prefix) throws VaultError;
+
+    JSONArray removeValuesWithPrefix(String prefix) throws VaultError;
+
     void validateLogin() throws AuthFailedError;
 
     void lock();
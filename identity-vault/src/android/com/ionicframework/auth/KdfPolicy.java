@@ -0,0 +1,162 @@
+package com.ionicframework.auth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bottlerocketstudios.vault.EncryptionConstants;
+import com.bottlerocketstudios.vault.keys.generator.Aes256KeyFromPasswordFactory;
+import com.bottlerocketstudios.vault.salt.PrngSaltGenerator;
+import com.bottlerocketstudios.vault.salt.SpecificSaltGenerator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+    The key derivation settings used to turn a passcode into a storage key. Each vault records the
+    policy its passcode key was derived with in its VaultState, vaults created before policies
+    existed use the legacy PBKDF2-SHA1 / 10000 iteration settings.
+ */
+public class KdfPolicy {
+    public static final String PBKDF2_SHA1 = "PBKDF2WithHmacSHA1";
+    public static final String PBKDF2_SHA256 = "PBKDF2WithHmacSHA256";
+    public static final int LEGACY_ITERATIONS = 10000;
+
+    final private static String TAG = "KdfPolicy";
+    final private static String ALGORITHM_KEY = "algorithm";
+    final private static String ITERATIONS_KEY = "iterations";
+    final private static String CALIBRATION_PREF = "kdfIterations:%s:%d";
+    final private static int KEY_LENGTH_BITS = 256;
+    // never derive with fewer iterations than this, regardless of how slow the device is
+    final private static int MIN_ITERATIONS = LEGACY_ITERATIONS;
+    final private static int MAX_ITERATIONS = 1000000;
+    final private static int CALIBRATION_ITERATIONS = 2000;
+
+    final public String algorithm;
+    final public int iterations;
+
+    KdfPolicy(String algorithm, int iterations) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    public static KdfPolicy legacy() {
+        return new KdfPolicy(PBKDF2_SHA1, LEGACY_ITERATIONS);
+    }
+
+    /**
+     * The policy new passcodes should be derived with. Stays on the legacy policy unless the app
+     * configured a fixed iteration count or a target duration, in which case the device is
+     * benchmarked once and the result remembered.
+     */
+    public static KdfPolicy getDefault(Context context, VaultAppConfig appConfig) {
+        if (appConfig.kdfIterations <= 0 && appConfig.kdfTargetDuration <= 0) {
+            return legacy();
+        }
+        String algorithm = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? PBKDF2_SHA256 : PBKDF2_SHA1;
+        if (appConfig.kdfIterations > 0) {
+            return new KdfPolicy(algorithm, Math.max(appConfig.kdfIterations, MIN_ITERATIONS));
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences("com.ionicframework.iv", Context.MODE_PRIVATE);
+        String prefKey = String.format(CALIBRATION_PREF, algorithm, appConfig.kdfTargetDuration);
+        int iterations = prefs.getInt(prefKey, 0);
+        if (iterations == 0) {
+            iterations = calibrate(algorithm, appConfig.kdfTargetDuration);
+            prefs.edit().putInt(prefKey, iterations).apply();
+        }
+        // calibrations remembered by older versions could go below the minimum
+        return new KdfPolicy(algorithm, Math.max(iterations, MIN_ITERATIONS));
+    }
+
+    private static int calibrate(String algorithm, int targetDuration) {
+        KdfPolicy probe = new KdfPolicy(algorithm, CALIBRATION_ITERATIONS);
+        byte[] salt = new PrngSaltGenerator().createSaltBytes(Aes256KeyFromPasswordFactory.SALT_SIZE_BYTES);
+        try {
+            // first run warms up the provider so it isn't counted
+            probe.deriveKey("calibration", salt);
+            long start = SystemClock.elapsedRealtime();
+            probe.deriveKey("calibration", salt);
+            long elapsed = Math.max(SystemClock.elapsedRealtime() - start, 1);
+            long iterations = CALIBRATION_ITERATIONS * (long) targetDuration / elapsed;
+            iterations = (iterations / 1000) * 1000;
+            Log.d(TAG, "Calibrated " + algorithm + " to " + iterations + " iterations");
+            return (int) Math.min(Math.max(iterations, MIN_ITERATIONS), MAX_ITERATIONS);
+        } catch (VaultError e) {
+            return LEGACY_ITERATIONS;
+        }
+    }
+
+    public SecretKey deriveKey(final String password, final byte[] salt) throws VaultError {
+        return VaultMetrics.getInstance().time(VaultMetrics.KDF_DERIVE_KEY, () -> derive(password, salt));
+    }
+
+    private SecretKey derive(String password, byte[] salt) throws VaultError {
+        if (PBKDF2_SHA1.equals(algorithm)) {
+            return Aes256KeyFromPasswordFactory.createKey(password, iterations, new SpecificSaltGenerator(salt));
+        }
+        PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH_BITS);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm);
+            byte[] keyBytes = factory.generateSecret(keySpec).getEncoded();
+            SecretKey key = new SecretKeySpec(keyBytes, EncryptionConstants.AES_CIPHER);
+            Arrays.fill(keyBytes, (byte) 0);
+            return key;
+        } catch (GeneralSecurityException e) {
+            throw new VaultError("Error deriving key: " + e.getLocalizedMessage());
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * @return true if deriving a key with this policy takes fewer iterations than with other, or as
+     * many with SHA-1 where other uses SHA-256
+     */
+    public boolean isWeakerThan(KdfPolicy other) {
+        if (iterations != other.iterations) {
+            return iterations < other.iterations;
+        }
+        return PBKDF2_SHA1.equals(algorithm) && !PBKDF2_SHA1.equals(other.algorithm);
+    }
+
+    public static KdfPolicy fromJSONObject(JSONObject json) {
+        if (json == null) {
+            return null;
+        }
+        String algorithm = json.optString(ALGORITHM_KEY, PBKDF2_SHA1);
+        int iterations = json.optInt(ITERATIONS_KEY, LEGACY_ITERATIONS);
+        return new KdfPolicy(algorithm, iterations);
+    }
+
+    public JSONObject toJSONObject() throws JSONException {
+        JSONObject j = new JSONObject();
+        j.put(ALGORITHM_KEY, algorithm);
+        j.put(ITERATIONS_KEY, iterations);
+        return j;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof KdfPolicy)) {
+            return false;
+        }
+        KdfPolicy other = (KdfPolicy) o;
+        return iterations == other.iterations && algorithm.equals(other.algorithm);
+    }
+
+    @Override
+    public int hashCode() {
+        return algorithm.hashCode() * 31 + iterations;
+    }
+}
@@ -0,0 +1,454 @@
+package com.ionicframework.auth;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.bottlerocketstudios.vault.keys.storage.KeyStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/*
+    Append-only record log. Every editor commit is appended to the file as a single checksummed frame,
+    so a write costs I/O in proportion to the records it changes instead of rewriting the whole vault.
+    Values are encrypted one by one with AES-GCM under the vault's current key and bound to their
+    record name. Only an index of where each live value sits in the file is kept in memory.
+
+    A frame cut short by a crash fails its checksum and is dropped the next time the log is opened.
+    Once superseded records make up most of the file, the live values are copied (still encrypted)
+    into a new file which then replaces the old one.
+ */
+public class LogFileVaultStorage implements VaultStorage {
+    final private static String TAG = "LogFileVaultStorage";
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+    final private static int MAGIC = 0x49564c47; // "IVLG"
+    final private static int VERSION = 1;
+    final private static int HEADER_SIZE = 8;
+    final private static int FRAME_HEADER_SIZE = 8;
+    final private static byte OP_PUT = 1;
+    final private static byte OP_REMOVE = 2;
+    final private static String CIPHER_TRANSFORM = "AES/GCM/NoPadding";
+    final private static int IV_LENGTH = 12;
+    final private static int TAG_LENGTH_BITS = 128;
+    // don't bother compacting small logs
+    final private static long COMPACT_MIN_SIZE = 64 * 1024;
+    final private static int COMPACT_FRAME_RECORDS = 256;
+
+    final private File mFile;
+    final private KeyStorage mKeyStorage;
+    final private Context mContext;
+    final private SecureRandom mRandom = new SecureRandom();
+
+    // opened on first use and closed by clear()
+    private FileChannel mChannel;
+    private HashMap<String, Extent> mIndex;
+    private long mSize;
+    private long mLiveBytes;
+
+    LogFileVaultStorage(Context context, File file, KeyStorage keyStorage) {
+        mContext = context;
+        mFile = file;
+        mKeyStorage = keyStorage;
+    }
+
+    private static class Extent {
+        final long offset;
+        final int length;
+
+        Extent(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    @Override
+    public String getString(String name) {
+        byte[] value = getBytes(name);
+        return value == null ? null : new String(value, UTF_8);
+    }
+
+    @Override
+    public synchronized byte[] getBytes(String name) {
+        Extent extent = getIndex().get(name);
+        if (extent == null) {
+            return null;
+        }
+        try {
+            return decrypt(name, read(mChannel, extent.offset, extent.length).array());
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading vault record", e);
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String name) {
+        return getIndex().containsKey(name);
+    }
+
+    @Override
+    public VaultStorage.Editor edit() {
+        return new LogEditor();
+    }
+
+    @Override
+    public synchronized void clear() {
+        closeChannel();
+        if (mFile.exists() && !mFile.delete()) {
+            Log.e(TAG, "Unable to delete vault log " + mFile);
+        }
+    }
+
+    private HashMap<String, Extent> getIndex() {
+        try {
+            open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error opening vault log", e);
+        }
+        return mIndex;
+    }
+
+    private void open() throws IOException {
+        if (mChannel != null) { return; }
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        mIndex = new HashMap<>();
+        mLiveBytes = 0;
+        long size = mChannel.size();
+        if (size < HEADER_SIZE) {
+            // new file, or one that never got past writing its header
+            writeHeader(mChannel);
+            mSize = HEADER_SIZE;
+            return;
+        }
+        ByteBuffer header = read(mChannel, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            closeChannel();
+            throw new IOException("Unrecognized vault log " + mFile);
+        }
+
+        long position = HEADER_SIZE;
+        while (position + FRAME_HEADER_SIZE <= size) {
+            ByteBuffer frameHeader = read(mChannel, position, FRAME_HEADER_SIZE);
+            int length = frameHeader.getInt();
+            int checksum = frameHeader.getInt();
+            long bodyOffset = position + FRAME_HEADER_SIZE;
+            if (length < 4 || bodyOffset + length > size) { break; }
+            ByteBuffer body = read(mChannel, bodyOffset, length);
+            if (checksum(body.array(), 0, length) != checksum) { break; }
+            List<Op> ops = decodeFrame(body, bodyOffset);
+            if (ops == null) { break; }
+            for (Op op : ops) {
+                if (op.extent == null) {
+                    removeExtent(op.name);
+                } else {
+                    putExtent(op.name, op.extent);
+                }
+            }
+            position = bodyOffset + length;
+        }
+        if (position < size) {
+            Log.d(TAG, "Dropping incomplete frame from vault log.");
+            mChannel.truncate(position);
+            mChannel.force(false);
+        }
+        mSize = position;
+    }
+
+    private void closeChannel() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // pass
+            }
+        }
+        mChannel = null;
+        mIndex = null;
+    }
+
+    private static class Op {
+        final String name;
+        final Extent extent;
+
+        Op(String name, Extent extent) {
+            this.name = name;
+            this.extent = extent;
+        }
+    }
+
+    private static List<Op> decodeFrame(ByteBuffer body, long bodyOffset) {
+        try {
+            int count = body.getInt();
+            ArrayList<Op> ops = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte type = body.get();
+                byte[] nameBytes = new byte[body.getShort() & 0xffff];
+                body.get(nameBytes);
+                String name = new String(nameBytes, UTF_8);
+                if (type == OP_REMOVE) {
+                    ops.add(new Op(name, null));
+                } else if (type == OP_PUT) {
+                    int length = body.getInt();
+                    if (length < 0 || length > body.remaining()) { return null; }
+                    ops.add(new Op(name, new Extent(bodyOffset + body.position(), length)));
+                    body.position(body.position() + length);
+                } else {
+                    return null;
+                }
+            }
+            return ops;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /*
+        Write a frame at the given position. A null value removes the record. The extents of the
+        values written are added to extents and the frame's length is returned.
+     */
+    private static long writeFrame(FileChannel channel, long position, Map<String, byte[]> changes, Map<String, Extent> extents) throws IOException {
+        ArrayList<byte[]> names = new ArrayList<>(changes.size());
+        int bodyLength = 4;
+        for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+            byte[] nameBytes = change.getKey().getBytes(UTF_8);
+            names.add(nameBytes);
+            bodyLength += 1 + 2 + nameBytes.length;
+            if (change.getValue() != null) {
+                bodyLength += 4 + change.getValue().length;
+            }
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + bodyLength);
+        frame.position(FRAME_HEADER_SIZE);
+        frame.putInt(changes.size());
+        int i = 0;
+        for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+            byte[] nameBytes = names.get(i++);
+            byte[] value = change.getValue();
+            frame.put(value == null ? OP_REMOVE : OP_PUT);
+            frame.putShort((short) nameBytes.length);
+            frame.put(nameBytes);
+            if (value != null) {
+                frame.putInt(value.length);
+                extents.put(change.getKey(), new Extent(position + frame.position(), value.length));
+                frame.put(value);
+            }
+        }
+        frame.putInt(0, bodyLength);
+        frame.putInt(4, checksum(frame.array(), FRAME_HEADER_SIZE, bodyLength));
+        frame.rewind();
+        write(channel, frame, position);
+        return frame.capacity();
+    }
+
+    private synchronized void commit(Map<String, byte[]> changes, boolean durable) throws IOException {
+        open();
+        HashMap<String, Extent> extents = new HashMap<>();
+        long length = writeFrame(mChannel, mSize, changes, extents);
+        if (durable) {
+            mChannel.force(false);
+        }
+        mSize += length;
+        for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                removeExtent(change.getKey());
+            } else {
+                putExtent(change.getKey(), extents.get(change.getKey()));
+            }
+        }
+
+        if (mSize > COMPACT_MIN_SIZE && mLiveBytes * 2 < mSize) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // the log is still intact, try again after the next commit
+                Log.e(TAG, "Error compacting vault log", e);
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        File compacted = new File(mFile.getPath() + ".tmp");
+        HashMap<String, Extent> index = new HashMap<>();
+        long position = HEADER_SIZE;
+        FileChannel out = new RandomAccessFile(compacted, "rw").getChannel();
+        try {
+            out.truncate(0);
+            writeHeader(out);
+            LinkedHashMap<String, byte[]> records = new LinkedHashMap<>();
+            for (Map.Entry<String, Extent> entry : mIndex.entrySet()) {
+                Extent extent = entry.getValue();
+                records.put(entry.getKey(), read(mChannel, extent.offset, extent.length).array());
+                if (records.size() == COMPACT_FRAME_RECORDS) {
+                    position += writeFrame(out, position, records, index);
+                    records.clear();
+                }
+            }
+            if (!records.isEmpty()) {
+                position += writeFrame(out, position, records, index);
+            }
+            out.force(true);
+        } finally {
+            out.close();
+        }
+        if (!compacted.renameTo(mFile)) {
+            compacted.delete();
+            throw new IOException("Unable to replace vault log " + mFile);
+        }
+        Log.d(TAG, "Compacted vault log from " + mSize + " to " + position + " bytes.");
+        mChannel.close();
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        mIndex = index;
+        mSize = position;
+    }
+
+    private void putExtent(String name, Extent extent) {
+        removeExtent(name);
+        mIndex.put(name, extent);
+        mLiveBytes += getRecordSize(name, extent);
+    }
+
+    private void removeExtent(String name) {
+        Extent previous = mIndex.remove(name);
+        if (previous != null) {
+            mLiveBytes -= getRecordSize(name, previous);
+        }
+    }
+
+    // approximate space a record takes up in a frame
+    private static long getRecordSize(String name, Extent extent) {
+        return 1 + 2 + name.length() + 4 + extent.length;
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.rewind();
+        write(channel, header, 0);
+        channel.force(false);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of vault log");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private SecretKey loadKey() {
+        SecretKey key = mKeyStorage.loadKey(mContext);
+        if (key == null) {
+            throw new IllegalStateException("Vault key is not available");
+        }
+        return key;
+    }
+
+    private byte[] encrypt(String name, byte[] plainText) {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            mRandom.nextBytes(iv);
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.ENCRYPT_MODE, loadKey(), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(name.getBytes(UTF_8));
+            byte[] output = new byte[IV_LENGTH + cipher.getOutputSize(plainText.length)];
+            System.arraycopy(iv, 0, output, 0, IV_LENGTH);
+            cipher.doFinal(plainText, 0, plainText.length, output, IV_LENGTH);
+            return output;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error encrypting vault record", e);
+        }
+    }
+
+    private byte[] decrypt(String name, byte[] data) {
+        try {
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.DECRYPT_MODE, loadKey(), new GCMParameterSpec(TAG_LENGTH_BITS, data, 0, IV_LENGTH));
+            cipher.updateAAD(name.getBytes(UTF_8));
+            return cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error decrypting vault record", e);
+        }
+    }
+
+    private class LogEditor implements VaultStorage.Editor {
+        // encrypted values by record name, null marks a removal
+        private final LinkedHashMap<String, byte[]> mChanges = new LinkedHashMap<>();
+
+        @Override
+        public VaultStorage.Editor putString(String name, String value) {
+            return putBytes(name, value == null ? null : value.getBytes(UTF_8));
+        }
+
+        @Override
+        public VaultStorage.Editor putBytes(String name, byte[] value) {
+            if (value == null) {
+                return remove(name);
+            }
+            mChanges.put(name, encrypt(name, value));
+            return this;
+        }
+
+        @Override
+        public VaultStorage.Editor remove(String name) {
+            mChanges.put(name, null);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            write(false);
+        }
+
+        @Override
+        public boolean commit() {
+            return write(true);
+        }
+
+        private boolean write(boolean durable) {
+            if (mChanges.isEmpty()) { return true; }
+            try {
+                LogFileVaultStorage.this.commit(mChanges, durable);
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing vault log", e);
+                return false;
+            } finally {
+                mChanges.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.ionicframework.auth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+    Wraps the callback of a plugin action and records the action in VaultMetrics when its final
+    result is sent, using the error code from the result when the action failed. Streamed results
+    are timed until the stream ends, setup's event stream only up to its first event.
+ */
+class MeteredCallbackContext extends CallbackContext {
+    final private String mAction;
+    final private CallbackContext mDelegate;
+    final private long mStart;
+    final private boolean mEventStream;
+    private boolean mRecorded = false;
+
+    MeteredCallbackContext(String action, CallbackContext delegate, CordovaWebView webView) {
+        super(delegate.getCallbackId(), webView);
+        mAction = action;
+        mDelegate = delegate;
+        mStart = VaultMetrics.now();
+        mEventStream = action.equals("setup");
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mDelegate.isFinished();
+    }
+
+    @Override
+    public void sendPluginResult(PluginResult pluginResult) {
+        boolean record = false;
+        synchronized (this) {
+            if (!mRecorded && (mEventStream || !pluginResult.getKeepCallback())) {
+                record = true;
+                mRecorded = true;
+            }
+        }
+        if (record) {
+            VaultMetrics.getInstance().record(mAction, mStart, getErrorCode(pluginResult));
+        }
+        mDelegate.sendPluginResult(pluginResult);
+    }
+
+    private static int getErrorCode(PluginResult pluginResult) {
+        if (pluginResult.getStatus() == PluginResult.Status.OK.ordinal()) {
+            return VaultMetrics.SUCCESS;
+        }
+        try {
+            return new JSONObject(pluginResult.getMessage()).optInt("code", VaultErrors.ERR_UNHANDLED);
+        } catch (JSONException e) {
+            return VaultErrors.ERR_UNHANDLED;
+        }
+    }
+}
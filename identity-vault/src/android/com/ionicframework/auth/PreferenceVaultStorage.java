@@ -0,0 +1,75 @@
+package com.ionicframework.auth;
+
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+/*
+    Keeps records in the vault's own encrypted SharedPreferences. This is how vaults have always been
+    stored and remains the default. Preferences only hold strings, so byte records are stored Base64
+    encoded.
+ */
+public class PreferenceVaultStorage implements VaultStorage {
+    final private SharedPreferences mPreferences;
+
+    PreferenceVaultStorage(SharedPreferences preferences) {
+        mPreferences = preferences;
+    }
+
+    @Override
+    public String getString(String name) {
+        return mPreferences.getString(name, null);
+    }
+
+    @Override
+    public byte[] getBytes(String name) {
+        String value = mPreferences.getString(name, null);
+        if (value == null) {
+            return null;
+        }
+        return Base64.decode(value, Base64.NO_WRAP);
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return mPreferences.contains(name);
+    }
+
+    @Override
+    public VaultStorage.Editor edit() {
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        return new VaultStorage.Editor() {
+            @Override
+            public VaultStorage.Editor putString(String name, String value) {
+                editor.putString(name, value);
+                return this;
+            }
+
+            @Override
+            public VaultStorage.Editor putBytes(String name, byte[] value) {
+                editor.putString(name, value == null ? null : Base64.encodeToString(value, Base64.NO_WRAP));
+                return this;
+            }
+
+            @Override
+            public VaultStorage.Editor remove(String name) {
+                editor.remove(name);
+                return this;
+            }
+
+            @Override
+            public void apply() {
+                editor.apply();
+            }
+
+            @Override
+            public boolean commit() {
+                return editor.commit();
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        mPreferences.edit().clear().commit();
+    }
+}
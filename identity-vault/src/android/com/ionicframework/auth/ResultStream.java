@@ -0,0 +1,153 @@
+package com.ionicframework.auth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/*
+    Sends a large result over the bridge in pieces instead of one message holding all of it. The
+    callback is kept for a header ({"__ivStream": {"type", "size"}}), then for the data as ArrayBuffer
+    chunks, and is released by a final empty result. The JS side collects the chunks into one buffer
+    of the announced size. Blobs that fit in a single chunk are sent as one plain ArrayBuffer.
+
+    Data is copied into a single chunk sized buffer that is reused once each chunk has been handed to
+    the bridge (results encode their message when they are created), so streaming a value never needs
+    a second full size copy of it.
+ */
+class ResultStream {
+    public static final String TYPE_BLOB = "blob";
+    public static final String TYPE_STRING = "string";
+    public static final String TYPE_JSON = "json";
+    // the only key of a header, the JS side checks its shape so a value result can't pass for one
+    private static final String HEADER_KEY = "__ivStream";
+
+    // results shorter than this are sent whole
+    public static final int CHUNK_SIZE = 256 * 1024;
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+
+    final private CallbackContext mCallbackContext;
+    final private byte[] mChunk = new byte[CHUNK_SIZE];
+    private int mChunkLength = 0;
+    private boolean mWhole = false;
+
+    ResultStream(CallbackContext callbackContext) {
+        mCallbackContext = callbackContext;
+    }
+
+    void begin(String type, long size) throws VaultError {
+        if (TYPE_BLOB.equals(type) && size <= CHUNK_SIZE) {
+            mWhole = true;
+            return;
+        }
+        try {
+            JSONObject stream = new JSONObject();
+            stream.put("type", type);
+            stream.put("size", size);
+            JSONObject header = new JSONObject();
+            header.put(HEADER_KEY, stream);
+            send(new PluginResult(PluginResult.Status.OK, header));
+        } catch (JSONException e) {
+            throw new VaultError("Error starting result stream");
+        }
+    }
+
+    void write(byte[] data, int offset, int length) throws VaultError {
+        while (length > 0) {
+            if (mChunkLength == CHUNK_SIZE) {
+                // a result sent whole was announced to fit in a single chunk
+                if (mWhole) { throw new VaultError("Result is longer than its announced size"); }
+                flush();
+            }
+            int n = Math.min(length, CHUNK_SIZE - mChunkLength);
+            System.arraycopy(data, offset, mChunk, mChunkLength, n);
+            mChunkLength += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    void finish() {
+        PluginResult result;
+        if (mWhole) {
+            result = new PluginResult(PluginResult.Status.OK, Arrays.copyOf(mChunk, mChunkLength));
+        } else {
+            flush();
+            String nullString = null;
+            result = new PluginResult(PluginResult.Status.OK, nullString);
+        }
+        result.setKeepCallback(false);
+        mCallbackContext.sendPluginResult(result);
+    }
+
+    /**
+     * Stream a string as UTF-8, encoded a chunk at a time
+     */
+    void sendString(String type, String value) throws VaultError {
+        begin(type, getUTF8Length(value));
+        CharsetEncoder encoder = UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer in = CharBuffer.wrap(value);
+        ByteBuffer out = ByteBuffer.wrap(mChunk);
+        CoderResult result;
+        do {
+            out.position(mChunkLength);
+            result = encoder.encode(in, out, true);
+            mChunkLength = out.position();
+            if (result.isOverflow()) {
+                flush();
+            }
+        } while (result.isOverflow());
+        do {
+            out.position(mChunkLength);
+            result = encoder.flush(out);
+            mChunkLength = out.position();
+            if (result.isOverflow()) {
+                flush();
+            }
+        } while (result.isOverflow());
+        finish();
+    }
+
+    private void flush() {
+        if (mChunkLength == 0) { return; }
+        byte[] chunk = mChunkLength == CHUNK_SIZE ? mChunk : Arrays.copyOf(mChunk, mChunkLength);
+        send(new PluginResult(PluginResult.Status.OK, chunk));
+        mChunkLength = 0;
+    }
+
+    private void send(PluginResult result) {
+        result.setKeepCallback(true);
+        mCallbackContext.sendPluginResult(result);
+    }
+
+    // unpaired surrogates are encoded as a single '?' byte, matching the encoder
+    static long getUTF8Length(String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -15,6 +15,8 @@ public class VaultAppConfig {
 
     // How long to wait before forcing the user to log in again (0 disables this)
     public int lockAfter = 0;
+    // Lock vaults that haven't been used for this many ms, in the foreground too (0 disables this)
+    public int idleLockAfter = 0;
     // Whether to automatically obscure the app when backgrounded
     public boolean hideScreenOnBackground = false;
     String promptTitle = "Please Authenticate";
@@ -23,6 +25,16 @@ public class VaultAppConfig {
     String promptNegativeButtonText = "Cancel";
     public boolean allowSystemPinFallback = false;
     public boolean shouldClearVaultAfterTooManyFailedAttempts = true;
+    // Fixed PBKDF2 iteration count for new passcodes (0 uses the default or calibrated count)
+    public int kdfIterations = 0;
+    // Target passcode key derivation time in ms used to calibrate the iteration count (0 disables calibration)
+    public int kdfTargetDuration = 0;
+    // VaultStorage backend for new vaults ("preferences" or "file")
+    public String storageBackend = VaultStorage.BACKEND_PREFERENCES;
+    // Write preference records with AES-GCM, vaults keep doing so once they have
+    public boolean gcmRecords = false;
+    // Construct remembered vaults in the background when the plugin loads
+    public boolean prefetch = false;
 
     private Activity activity;
 
@@ -48,7 +60,13 @@ public class VaultAppConfig {
         instance.allowSystemPinFallback = config.optBoolean("allowSystemPinFallback", instance.allowSystemPinFallback);
         instance.shouldClearVaultAfterTooManyFailedAttempts = config.optBoolean("shouldClearVaultAfterTooManyFailedAttempts", instance.shouldClearVaultAfterTooManyFailedAttempts);
         instance.lockAfter = config.optInt("lockAfter", instance.lockAfter);
+        instance.idleLockAfter = config.optInt("androidIdleLockAfter", instance.idleLockAfter);
         instance.hideScreenOnBackground = config.optBoolean("hideScreenOnBackground", instance.hideScreenOnBackground);
+        instance.kdfIterations = config.optInt("androidKdfIterations", instance.kdfIterations);
+        instance.kdfTargetDuration = config.optInt("androidKdfTargetDuration", instance.kdfTargetDuration);
+        instance.storageBackend = config.optString("androidStorageBackend", instance.storageBackend);
+        instance.gcmRecords = config.optBoolean("androidGcmRecords", instance.gcmRecords);
+        instance.prefetch = config.optBoolean("androidPrefetch", instance.prefetch);
         // Goofy place maybe but store the flag is shared prefs since the onResume/onPause handlers
         // don't seem to have access to the in memory vault
         activity.getApplicationContext()
@@ -56,6 +74,7 @@ public class VaultAppConfig {
                 .edit()
                 .putBoolean("hideScreen", instance.hideScreenOnBackground)
                 .commit();
+        VaultPrefetcher.setEnabled(activity, instance.prefetch);
         instance.configured = true;
     }
 }
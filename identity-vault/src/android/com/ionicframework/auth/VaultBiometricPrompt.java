@@ -0,0 +1,93 @@
+package com.ionicframework.auth;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.biometric.BiometricConstants;
+import androidx.biometric.BiometricPrompt;
+import androidx.fragment.app.FragmentActivity;
+
+import javax.crypto.Cipher;
+
+/*
+    Shows the BiometricPrompt over the app's own activity, without starting BiometricActivity for it.
+    With a cipher the prompt authorizes it for a single use, so the result unwraps the vault's data key
+    (see BiometricKeyWrap).
+
+    The prompt settings and error mapping are shared with BiometricActivity, which is still used when
+    the app's activity can't host the prompt or the system PIN fallback is allowed.
+ */
+class VaultBiometricPrompt {
+
+    interface Callback {
+        /**
+         * @param cipher the cipher passed to authenticate(), now authorized, or null
+         */
+        void onSuccess(Cipher cipher);
+
+        void onError(VaultError error);
+    }
+
+    /**
+     * Must be called on the UI thread, the callback is as well
+     */
+    static void authenticate(FragmentActivity activity, Cipher cipher, final Callback callback) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        BiometricPrompt biometricPrompt = new BiometricPrompt(activity, handler::post, new BiometricPrompt.AuthenticationCallback() {
+            @Override
+            public void onAuthenticationError(int errorCode, @NonNull CharSequence errString) {
+                super.onAuthenticationError(errorCode, errString);
+                callback.onError(getError(errorCode));
+            }
+
+            @Override
+            public void onAuthenticationSucceeded(@NonNull BiometricPrompt.AuthenticationResult result) {
+                super.onAuthenticationSucceeded(result);
+                BiometricPrompt.CryptoObject crypto = result.getCryptoObject();
+                callback.onSuccess(crypto == null ? null : crypto.getCipher());
+            }
+        });
+        BiometricPrompt.PromptInfo promptInfo = newPromptInfoBuilder(VaultAppConfig.getInstance()).build();
+        if (cipher != null) {
+            biometricPrompt.authenticate(promptInfo, new BiometricPrompt.CryptoObject(cipher));
+        } else {
+            biometricPrompt.authenticate(promptInfo);
+        }
+    }
+
+    static BiometricPrompt.PromptInfo.Builder newPromptInfoBuilder(VaultAppConfig config) {
+        BiometricPrompt.PromptInfo.Builder builder = new BiometricPrompt.PromptInfo.Builder()
+            .setTitle(config.promptTitle)
+            .setSubtitle(config.promptSubtitle)
+            .setDescription(config.promptDescription)
+            .setDeviceCredentialAllowed(config.allowSystemPinFallback);
+
+        if (!config.allowSystemPinFallback) {
+            builder.setNegativeButtonText(config.promptNegativeButtonText);
+        }
+        return builder;
+    }
+
+    static VaultError getError(int errorCode) {
+        switch (errorCode)
+        {
+            case BiometricPrompt.ERROR_USER_CANCELED:
+            case BiometricPrompt.ERROR_CANCELED:
+            case BiometricPrompt.ERROR_NEGATIVE_BUTTON:
+                return new UserCanceledAuthError();
+            case BiometricPrompt.ERROR_LOCKOUT:
+            case BiometricPrompt.ERROR_LOCKOUT_PERMANENT:
+                return new TooManyFailedAttemptsError();
+            case BiometricConstants.ERROR_HW_NOT_PRESENT:
+                BiometricCapabilities.invalidate();
+                return new SecurityNotAvailableError();
+            case BiometricPrompt.ERROR_NO_BIOMETRICS:
+            case BiometricPrompt.ERROR_NO_DEVICE_CREDENTIAL:
+                BiometricCapabilities.invalidate();
+                return new BiometricsNotEnabled();
+            default:
+                return new VaultError();
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.ionicframework.auth;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+    Large values (documents, images) kept as one encrypted file each, next to a vault instead of in
+    its records. A blob is split into fixed size chunks that are encrypted separately with AES-GCM,
+    so it's written and read through one small buffer and a chunk can be decrypted without the rest.
+    Every chunk is bound to the blob's file name, its header and its position, so chunks can't be
+    swapped, reordered or cut off. Writes go to a temporary file that replaces the blob in one rename.
+
+    The blobs are encrypted with a random blob key (and named by an HMAC of their name) that is kept
+    wrapped by the vault's storage key. When the vault's key has to be replaced because it was exposed,
+    every blob is re-encrypted under a new blob key as well. The copies and the new key file are
+    written next to the current ones before the vault switches keys and put in place after, whichever
+    set opens under the vault's current key is used after a crash in between.
+ */
+class VaultBlobStore {
+    final private static String TAG = "VaultBlobStore";
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+    final private static int MAGIC = 0x4956424c; // "IVBL"
+    final private static int VERSION = 1;
+    // magic, version, chunk size, length, nonce prefix
+    final private static int HEADER_SIZE = 28;
+    final private static int CHUNK_SIZE = 64 * 1024;
+    final private static int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    final private static String CIPHER_TRANSFORM = "AES/GCM/NoPadding";
+    final private static String MAC_ALGORITHM = "HmacSHA256";
+    final private static int IV_LENGTH = 12;
+    final private static int NONCE_PREFIX_LENGTH = 8;
+    final private static int TAG_LENGTH = 16;
+    final private static int KEY_LENGTH = 32;
+    final private static byte KEY_FILE_VERSION = 1;
+    final private static String KEY_FILE = "key";
+    final private static String NEXT_KEY_FILE = "key.next";
+    final private static String NEXT_SUFFIX = ".next";
+    final private static String TEMP_SUFFIX = ".tmp";
+    final private static byte[] KEY_FILE_AAD = "blobKey".getBytes(UTF_8);
+
+    final private File mDirectory;
+    final private SecureRandom mRandom = new SecureRandom();
+
+    // the unwrapped blob keys, dropped whenever the vault locks
+    private SecretKey mEncryptionKey;
+    private SecretKey mNameKey;
+
+    interface Reader {
+        void onStart(long length) throws VaultError;
+
+        /**
+         * @param data only valid until onData returns, it's reused for the next chunk
+         */
+        void onData(byte[] data, int length) throws VaultError;
+    }
+
+    VaultBlobStore(File directory) {
+        mDirectory = directory;
+    }
+
+    void store(SecretKey vaultKey, String name, byte[] data) throws VaultError {
+        File file = getBlobFile(vaultKey, name, true);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            byte[] header = createHeader(data.length, CHUNK_SIZE);
+            byte[] aad = getAAD(header, file.getName());
+            write(channel, ByteBuffer.wrap(header));
+
+            byte[] chunk = new byte[CHUNK_SIZE + TAG_LENGTH];
+            int index = 0;
+            for (int offset = 0; offset < data.length || index == 0; offset += CHUNK_SIZE, index++) {
+                int length = Math.min(CHUNK_SIZE, data.length - offset);
+                Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.ENCRYPT_MODE, getEncryptionKey(), getChunkSpec(header, index));
+                cipher.updateAAD(aad);
+                int encrypted = cipher.doFinal(data, offset, length, chunk, 0);
+                write(channel, ByteBuffer.wrap(chunk, 0, encrypted));
+            }
+            channel.force(true);
+        } catch (IOException | GeneralSecurityException e) {
+            temp.delete();
+            Log.e(TAG, "Error writing blob", e);
+            throw new VaultError("Error storing blob");
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new VaultError("Error storing blob");
+        }
+    }
+
+    /**
+     * Decrypt a blob chunk by chunk into the reader, only one chunk is held in memory at a time
+     *
+     * @return false if there's no blob with that name
+     */
+    boolean read(SecretKey vaultKey, String name, Reader reader) throws VaultError {
+        File file = getBlobFile(vaultKey, name, false);
+        if (file == null || !file.exists()) {
+            return false;
+        }
+        try (BlobFile blob = new BlobFile(file)) {
+            reader.onStart(blob.length);
+            byte[] chunk = new byte[blob.chunkSize];
+            for (int index = 0; index < blob.chunkCount; index++) {
+                reader.onData(chunk, blob.decryptChunk(index, chunk, 0));
+            }
+            return true;
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(TAG, "Error reading blob", e);
+            throw new VaultError("Error reading blob");
+        }
+    }
+
+    void remove(SecretKey vaultKey, String name) throws VaultError {
+        File file = getBlobFile(vaultKey, name, false);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Re-encrypt every blob under a new blob key, wrapped by the vault's next key, before the vault
+     * switches to it. Nothing replaces the current blobs until commitRekey().
+     */
+    synchronized void prepareRekey(SecretKey vaultKey, SecretKey nextVaultKey) throws VaultError {
+        if (!loadKeys(vaultKey, false)) { return; }
+        byte[] nextKey = new byte[KEY_LENGTH];
+        mRandom.nextBytes(nextKey);
+        SecretKey nextEncryptionKey = new SecretKeySpec(nextKey, "AES");
+        Arrays.fill(nextKey, (byte) 0);
+        try {
+            for (File file : listBlobs()) {
+                reencrypt(file, new File(file.getPath() + NEXT_SUFFIX), nextEncryptionKey);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            discardRekey();
+            Log.e(TAG, "Error re-encrypting blob", e);
+            throw new VaultError("Error re-keying blobs");
+        }
+        writeKeyFile(new File(mDirectory, NEXT_KEY_FILE), nextVaultKey, nextEncryptionKey, mNameKey);
+    }
+
+    /**
+     * Put the blobs and key from prepareRekey() in place, once the vault is using its new key
+     */
+    synchronized void commitRekey() {
+        promoteRekey();
+        // read back with the vault's new key
+        lock();
+    }
+
+    synchronized void abortRekey() {
+        discardRekey();
+    }
+
+    synchronized void lock() {
+        mEncryptionKey = null;
+        mNameKey = null;
+    }
+
+    synchronized void clear() {
+        lock();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private class BlobFile implements Closeable {
+        final RandomAccessFile file;
+        final FileChannel channel;
+        final byte[] header;
+        final byte[] aad;
+        final int chunkSize;
+        final int length;
+        final int chunkCount;
+        final ByteBuffer chunk;
+
+        BlobFile(File blobFile) throws IOException, VaultError {
+            file = new RandomAccessFile(blobFile, "r");
+            try {
+                channel = file.getChannel();
+                ByteBuffer headerBuffer = read(channel, 0, HEADER_SIZE);
+                header = headerBuffer.array();
+                if (headerBuffer.getInt() != MAGIC || headerBuffer.getInt() != VERSION) {
+                    throw new VaultError("Unsupported blob format");
+                }
+                chunkSize = headerBuffer.getInt();
+                long blobLength = headerBuffer.getLong();
+                if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || blobLength < 0 || blobLength > Integer.MAX_VALUE) {
+                    throw new VaultError("Error reading blob");
+                }
+                length = (int) blobLength;
+                // an empty blob still has one (empty) chunk
+                chunkCount = Math.max((int) ((blobLength + chunkSize - 1) / chunkSize), 1);
+                long expectedSize = HEADER_SIZE + blobLength + (long) chunkCount * TAG_LENGTH;
+                if (channel.size() != expectedSize) {
+                    throw new VaultError("Error reading blob");
+                }
+                aad = getAAD(header, blobFile.getName());
+                chunk = ByteBuffer.allocate(chunkSize + TAG_LENGTH);
+            } catch (IOException | VaultError | RuntimeException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the number of bytes decrypted into out
+         */
+        int decryptChunk(int index, byte[] out, int outOffset) throws IOException, GeneralSecurityException {
+            long offset = (long) index * chunkSize;
+            int chunkLength = (int) Math.min(chunkSize, length - offset) + TAG_LENGTH;
+            chunk.clear();
+            chunk.limit(chunkLength);
+            readFully(channel, chunk, HEADER_SIZE + offset + (long) index * TAG_LENGTH);
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.DECRYPT_MODE, getEncryptionKey(), getChunkSpec(header, index));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(chunk.array(), 0, chunkLength, out, outOffset);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    private File getBlobFile(SecretKey vaultKey, String name, boolean create) throws VaultError {
+        if (!loadKeys(vaultKey, create)) {
+            return null;
+        }
+        try {
+            Mac mac = VaultCrypto.getMac(MAC_ALGORITHM, getNameKey());
+            byte[] hash = mac.doFinal(name.getBytes(UTF_8));
+            StringBuilder fileName = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                fileName.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDirectory, fileName.toString());
+        } catch (GeneralSecurityException e) {
+            throw new VaultError("Error reading blob");
+        }
+    }
+
+    private synchronized SecretKey getEncryptionKey() {
+        return mEncryptionKey;
+    }
+
+    private synchronized SecretKey getNameKey() {
+        return mNameKey;
+    }
+
+    /**
+     * Unwrap the blob keys with the vault's key, generating them if the store is new and create is set
+     *
+     * @return whether the keys are available
+     */
+    private synchronized boolean loadKeys(SecretKey vaultKey, boolean create) throws VaultError {
+        if (mEncryptionKey != null) { return true; }
+        if (vaultKey == null) { throw new VaultLockedError(); }
+        File keyFile = new File(mDirectory, KEY_FILE);
+        File nextKeyFile = new File(mDirectory, NEXT_KEY_FILE);
+        byte[] keys = readKeyFile(keyFile, vaultKey);
+        if (keys != null) {
+            if (nextKeyFile.exists()) {
+                // left behind by a re-key that didn't go through
+                discardRekey();
+            }
+            setKeys(keys);
+            return true;
+        } else if ((keys = readKeyFile(nextKeyFile, vaultKey)) != null) {
+            // the vault switched keys before the re-encrypted blobs were put in place
+            promoteRekey();
+            setKeys(keys);
+            return true;
+        } else if (keyFile.exists()) {
+            throw new VaultError("Unable to read blob key");
+        } else if (!create) {
+            return false;
+        }
+        keys = new byte[KEY_LENGTH * 2];
+        mRandom.nextBytes(keys);
+        setKeys(keys);
+        writeKeyFile(keyFile, vaultKey, mEncryptionKey, mNameKey);
+        return true;
+    }
+
+    private void setKeys(byte[] keys) {
+        mEncryptionKey = new SecretKeySpec(keys, 0, KEY_LENGTH, "AES");
+        mNameKey = new SecretKeySpec(keys, KEY_LENGTH, KEY_LENGTH, MAC_ALGORITHM);
+        Arrays.fill(keys, (byte) 0);
+    }
+
+    private byte[] readKeyFile(File file, SecretKey vaultKey) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            if (data.length <= 1 + IV_LENGTH || data[0] != KEY_FILE_VERSION) {
+                return null;
+            }
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.DECRYPT_MODE, vaultKey, new GCMParameterSpec(TAG_LENGTH * 8, data, 1, IV_LENGTH));
+            cipher.updateAAD(KEY_FILE_AAD);
+            return cipher.doFinal(data, 1 + IV_LENGTH, data.length - 1 - IV_LENGTH);
+        } catch (IOException | GeneralSecurityException e) {
+            // wrapped by another key
+            return null;
+        }
+    }
+
+    private void writeKeyFile(File file, SecretKey vaultKey, SecretKey encryptionKey, SecretKey nameKey) throws VaultError {
+        byte[] keys = new byte[KEY_LENGTH * 2];
+        System.arraycopy(encryptionKey.getEncoded(), 0, keys, 0, KEY_LENGTH);
+        System.arraycopy(nameKey.getEncoded(), 0, keys, KEY_LENGTH, KEY_LENGTH);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Unable to create " + mDirectory);
+            }
+            byte[] iv = new byte[IV_LENGTH];
+            mRandom.nextBytes(iv);
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.ENCRYPT_MODE, vaultKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(KEY_FILE_AAD);
+            byte[] wrapped = cipher.doFinal(keys);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(KEY_FILE_VERSION);
+                out.write(iv);
+                out.write(wrapped);
+                out.getFD().sync();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            temp.delete();
+            Log.e(TAG, "Error writing blob key", e);
+            throw new VaultError("Error storing blob key");
+        } finally {
+            Arrays.fill(keys, (byte) 0);
+        }
+    }
+
+    // the blobs' file names are the hex name HMACs, everything else in the directory has a suffix
+    private File[] listBlobs() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.indexOf('.') < 0 && !name.equals(KEY_FILE));
+        return files == null ? new File[0] : files;
+    }
+
+    private void reencrypt(File from, File to, SecretKey encryptionKey) throws IOException, GeneralSecurityException, VaultError {
+        try (BlobFile blob = new BlobFile(from); RandomAccessFile out = new RandomAccessFile(to, "rw")) {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            byte[] header = createHeader(blob.length, blob.chunkSize);
+            byte[] aad = getAAD(header, from.getName());
+            write(channel, ByteBuffer.wrap(header));
+
+            byte[] data = new byte[blob.chunkSize];
+            byte[] chunk = new byte[blob.chunkSize + TAG_LENGTH];
+            for (int index = 0; index < blob.chunkCount; index++) {
+                int length = blob.decryptChunk(index, data, 0);
+                Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.ENCRYPT_MODE, encryptionKey, getChunkSpec(header, index));
+                cipher.updateAAD(aad);
+                write(channel, ByteBuffer.wrap(chunk, 0, cipher.doFinal(data, 0, length, chunk, 0)));
+            }
+            channel.force(true);
+        }
+    }
+
+    private void discardRekey() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(NEXT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    // the key file goes last, until it's replaced the blobs left to rename are found by their suffix
+    private void promoteRekey() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(NEXT_SUFFIX) && !name.equals(NEXT_KEY_FILE));
+        if (files != null) {
+            for (File file : files) {
+                String path = file.getPath();
+                if (!file.renameTo(new File(path.substring(0, path.length() - NEXT_SUFFIX.length())))) {
+                    Log.w(TAG, "Unable to replace blob");
+                }
+            }
+        }
+        File next = new File(mDirectory, NEXT_KEY_FILE);
+        if (next.exists() && !next.renameTo(new File(mDirectory, KEY_FILE))) {
+            // the next load will still find it and promote it
+            Log.w(TAG, "Unable to replace blob key");
+        }
+    }
+
+    private byte[] createHeader(long length, int chunkSize) {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        mRandom.nextBytes(noncePrefix);
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(chunkSize)
+                .putLong(length)
+                .put(noncePrefix)
+                .array();
+    }
+
+    private static byte[] getAAD(byte[] header, String name) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        byte[] aad = Arrays.copyOf(header, HEADER_SIZE + nameBytes.length);
+        System.arraycopy(nameBytes, 0, aad, HEADER_SIZE, nameBytes.length);
+        return aad;
+    }
+
+    // the header's random prefix followed by the chunk index, unique for every chunk under a key
+    private static GCMParameterSpec getChunkSpec(byte[] header, int index) {
+        byte[] iv = ByteBuffer.allocate(IV_LENGTH)
+                .put(header, HEADER_SIZE - NONCE_PREFIX_LENGTH, NONCE_PREFIX_LENGTH)
+                .putInt(index)
+                .array();
+        return new GCMParameterSpec(TAG_LENGTH * 8, iv);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0) {
+                throw new IOException("Unexpected end of blob");
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.ionicframework.auth;
+
+import com.bottlerocketstudios.vault.EncryptionConstants;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.security.cert.CertificateException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+
+/*
+    Crypto objects shared by the vault classes. Looking up a provider and loading the Android keystore
+    are expensive and used to be repeated for every record, blob chunk and biometric unlock, so the
+    provider each Cipher and Mac ends up with is remembered and the keystore is loaded once.
+
+    Ciphers and Macs themselves are created for every operation and handed out freshly initialized,
+    they hold the vault's keys once initialized and must not outlive it being locked. A Cipher settles
+    on a provider when it's initialized, depending on the key, so Keystore and software keys are
+    remembered separately. KeyGenerators only hold their parameters and are kept per thread.
+ */
+final class VaultCrypto {
+    private static final ThreadLocal<HashMap<String, KeyGenerator>> sKeyGenerators = new ThreadLocal<HashMap<String, KeyGenerator>>() {
+        @Override
+        protected HashMap<String, KeyGenerator> initialValue() {
+            return new HashMap<>();
+        }
+    };
+    private static final ConcurrentHashMap<String, Provider> sProviders = new ConcurrentHashMap<>();
+    private static KeyStore sAndroidKeyStore;
+
+    private VaultCrypto() {}
+
+    static Cipher getCipher(String transform, int mode, Key key) throws GeneralSecurityException {
+        return getCipher(transform, mode, key, null);
+    }
+
+    static Cipher getCipher(String transform, int mode, Key key, AlgorithmParameterSpec params) throws GeneralSecurityException {
+        String name = "Cipher:" + transform + ":" + key.getClass().getName();
+        Provider provider = sProviders.get(name);
+        Cipher cipher = provider == null ? Cipher.getInstance(transform) : Cipher.getInstance(transform, provider);
+        if (params == null) {
+            cipher.init(mode, key);
+        } else {
+            cipher.init(mode, key, params);
+        }
+        if (provider == null) {
+            sProviders.put(name, cipher.getProvider());
+        }
+        return cipher;
+    }
+
+    static Mac getMac(String algorithm, Key key) throws GeneralSecurityException {
+        String name = "Mac:" + algorithm + ":" + key.getClass().getName();
+        Provider provider = sProviders.get(name);
+        Mac mac = provider == null ? Mac.getInstance(algorithm) : Mac.getInstance(algorithm, provider);
+        mac.init(key);
+        if (provider == null) {
+            sProviders.put(name, mac.getProvider());
+        }
+        return mac;
+    }
+
+    /**
+     * A KeyGenerator from the Android keystore, it has to be initialized before every key it generates
+     */
+    static KeyGenerator getKeystoreKeyGenerator(String algorithm) throws NoSuchAlgorithmException, NoSuchProviderException {
+        HashMap<String, KeyGenerator> keyGenerators = sKeyGenerators.get();
+        KeyGenerator keyGenerator = keyGenerators.get(algorithm);
+        if (keyGenerator == null) {
+            keyGenerator = KeyGenerator.getInstance(algorithm, EncryptionConstants.ANDROID_KEY_STORE);
+            keyGenerators.put(algorithm, keyGenerator);
+        }
+        return keyGenerator;
+    }
+
+    /**
+     * The loaded Android keystore. It reads entries from the keystore service as they're asked for, so
+     * one instance always sees keys created or deleted since it was loaded.
+     */
+    static synchronized KeyStore getAndroidKeyStore() throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+        if (sAndroidKeyStore == null) {
+            KeyStore keyStore = KeyStore.getInstance(EncryptionConstants.ANDROID_KEY_STORE);
+            keyStore.load(null);
+            sAndroidKeyStore = keyStore;
+        }
+        return sAndroidKeyStore;
+    }
+}
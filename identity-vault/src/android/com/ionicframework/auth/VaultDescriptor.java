@@ -17,6 +17,11 @@ public class VaultDescriptor {
         }
     }
 
+    VaultDescriptor(String username, String vaultId) {
+        this.username = username;
+        this.vaultId = vaultId;
+    }
+
     public JSONObject toJSONObject() throws JSONException {
         JSONObject j = new JSONObject();
         j.put("username", username);
@@ -0,0 +1,99 @@
+package com.ionicframework.auth;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+
+/*
+    Runs plugin actions off the WebView bridge thread on a pool of worker threads. Every vault gets
+    its own queue that keeps actions in the order they were received: consecutive reads of a vault
+    run in parallel, a write waits for the reads before it and holds back everything after it.
+    Queues of different vaults never wait on each other.
+ */
+public class VaultDispatcher {
+
+    private final ExecutorService mExecutor;
+    private final HashMap<String, VaultQueue> mQueues = new HashMap<>();
+
+    VaultDispatcher(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    public void dispatch(String vaultId, boolean readOnly, Runnable task) {
+        VaultQueue queue;
+        synchronized (mQueues) {
+            queue = mQueues.get(vaultId);
+            if (queue == null) {
+                queue = new VaultQueue();
+                mQueues.put(vaultId, queue);
+            }
+        }
+        queue.execute(readOnly, task);
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private class VaultQueue {
+        private final ArrayDeque<QueuedTask> mTasks = new ArrayDeque<>();
+        private int mActiveReads = 0;
+        private boolean mActiveWrite = false;
+
+        public synchronized void execute(boolean readOnly, Runnable task) {
+            mTasks.offer(new QueuedTask(this, readOnly, task));
+            scheduleNext();
+        }
+
+        private synchronized void finished(QueuedTask task) {
+            if (task.readOnly) {
+                mActiveReads--;
+            } else {
+                mActiveWrite = false;
+            }
+            scheduleNext();
+        }
+
+        private synchronized void scheduleNext() {
+            if (mExecutor.isShutdown()) {
+                // the plugin is being destroyed, nobody is waiting on these anymore
+                mTasks.clear();
+                return;
+            }
+            while (!mTasks.isEmpty() && !mActiveWrite) {
+                QueuedTask next = mTasks.peek();
+                if (!next.readOnly && mActiveReads > 0) {
+                    return;
+                }
+                mTasks.poll();
+                if (next.readOnly) {
+                    mActiveReads++;
+                } else {
+                    mActiveWrite = true;
+                }
+                mExecutor.execute(next);
+            }
+        }
+    }
+
+    private static class QueuedTask implements Runnable {
+        final VaultQueue queue;
+        final boolean readOnly;
+        final Runnable task;
+
+        QueuedTask(VaultQueue queue, boolean readOnly, Runnable task) {
+            this.queue = queue;
+            this.readOnly = readOnly;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                queue.finished(this);
+            }
+        }
+    }
+}
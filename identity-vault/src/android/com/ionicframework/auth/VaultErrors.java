@@ -57,6 +57,10 @@ public class VaultErrors {
         }
     }
 
+    public static int getCode(VaultError e) {
+        return toJSON(e).optInt("code", ERR_UNHANDLED);
+    }
+
     private static JSONObject getJSON(int code, String msg) {
         JSONObject ret = new JSONObject();
         try {
@@ -3,11 +3,14 @@ package com.ionicframework.auth;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
+import android.util.Base64;
 
 import com.bottlerocketstudios.vault.EncryptionConstants;
 import com.bottlerocketstudios.vault.SharedPreferenceVault;
 import com.bottlerocketstudios.vault.SharedPreferenceVaultFactory;
 
+import java.io.File;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 
 public class VaultFactory extends SharedPreferenceVaultFactory {
@@ -20,6 +23,12 @@ public class VaultFactory extends SharedPreferenceVaultFactory {
     final private static String PASSCODE_PREF_NAME = "%s:passcode:pref";
     final private static String BIOMETRIC_PREF_NAME = "%s:biometric:pref";
     final private static String BIOMETRIC_KEY_NAME = "%s:biometric:key";
+    final private static String LOG_FILE_DIR = "ionic_vault";
+    final private static String LOG_FILE_NAME = "%s.log";
+    final private static String BLOB_DIR = "blobs";
+
+    // the config vault is shared by every vault, creating it means setting up and unwrapping its key
+    private static IonicStateVault sStateVault;
 
     /**
      * Create a vault that uses the operating system's built in keystore locking mechanism. Whenever
@@ -47,8 +56,43 @@ public class VaultFactory extends SharedPreferenceVaultFactory {
     }
 
     public static IonicVault getPasscodeVault(Context context, String descriptor) {
+        return getPasscodeVault(context, descriptor, VaultStorage.BACKEND_PREFERENCES);
+    }
+
+    public static IonicVault getPasscodeVault(Context context, String descriptor, String storageBackend) {
+        return getPasscodeVault(context, descriptor, storageBackend, false);
+    }
+
+    /**
+     * Create the vault holding a descriptor's values, with its records kept in the given
+     * {@link VaultStorage} backend. With gcmRecords the preferences backend writes AES-GCM records
+     * (see GcmPreferenceVaultStorage), the file backend always does.
+     */
+    public static IonicVault getPasscodeVault(Context context, String descriptor, String storageBackend, boolean gcmRecords) {
         IonicKeyStorage keyStorage = new IonicMemoryOnlyKeyStorage();
-        return new IonicSharedPreferenceVault(context, keyStorage, String.format(PASSCODE_PREF_NAME, descriptor), EncryptionConstants.AES_CBC_PADDED_TRANSFORM, true);
+        String prefFileName = String.format(PASSCODE_PREF_NAME, descriptor);
+        VaultStorage storage = null;
+        if (VaultStorage.BACKEND_FILE.equals(storageBackend)) {
+            storage = new LogFileVaultStorage(context, getLogFile(context, prefFileName), keyStorage);
+        }
+        return new IonicSharedPreferenceVault(context, keyStorage, prefFileName, EncryptionConstants.AES_CBC_PADDED_TRANSFORM, true, storage, gcmRecords);
+    }
+
+    private static File getLogFile(Context context, String name) {
+        return new File(new File(context.getFilesDir(), LOG_FILE_DIR), String.format(LOG_FILE_NAME, getSafeFileName(name)));
+    }
+
+    /**
+     * Create the store for a descriptor's blobs, its files live under the app's private files dir
+     */
+    static VaultBlobStore getBlobStore(Context context, String descriptor) {
+        File blobs = new File(new File(context.getFilesDir(), LOG_FILE_DIR), BLOB_DIR);
+        return new VaultBlobStore(new File(blobs, getSafeFileName(String.format(PASSCODE_PREF_NAME, descriptor))));
+    }
+
+    // descriptors contain the username, keep file names to safe characters
+    private static String getSafeFileName(String name) {
+        return Base64.encodeToString(name.getBytes(Charset.forName("UTF-8")), Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
     }
 
     @TargetApi(Build.VERSION_CODES.M)
@@ -61,7 +105,10 @@ public class VaultFactory extends SharedPreferenceVaultFactory {
         );
     }
 
-    public static IonicStateVault getStateVault(Context context) throws VaultError {
+    public static synchronized IonicStateVault getStateVault(Context context) throws VaultError {
+        if (sStateVault != null) {
+            return sStateVault;
+        }
         try {
             SharedPreferenceVault vault = VaultFactory.getAppKeyedCompatAes256Vault(
                     context,
@@ -72,7 +119,8 @@ public class VaultFactory extends SharedPreferenceVaultFactory {
                     CONFIG_APP_SECRET,
                     true
             );
-            return new IonicStateVault(vault);
+            sStateVault = new IonicStateVault(vault);
+            return sStateVault;
         } catch (GeneralSecurityException e) {
             throw new VaultError("Error creating config vault.");
         }
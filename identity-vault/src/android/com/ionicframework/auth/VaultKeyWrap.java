@@ -0,0 +1,68 @@
+package com.ionicframework.auth;
+
+import com.bottlerocketstudios.vault.EncryptionConstants;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+    Wraps a vault's data key with a key that protects it (e.g. one derived from the passcode), so the
+    protecting key can change without touching the data. A wrapped key is a version byte, a random IV
+    and the AES-GCM encrypted key, bound to the vault it belongs to.
+ */
+class VaultKeyWrap {
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+    final private static String CIPHER_TRANSFORM = "AES/GCM/NoPadding";
+    final private static byte VERSION = 1;
+    final private static int IV_LENGTH = 12;
+    final private static int TAG_LENGTH = 16;
+    final private static SecureRandom sRandom = new SecureRandom();
+
+    static byte[] wrap(SecretKey wrappingKey, SecretKey key, String descriptor) throws VaultError {
+        byte[] encodedKey = key.getEncoded();
+        try {
+            byte[] wrapped = new byte[1 + IV_LENGTH + encodedKey.length + TAG_LENGTH];
+            wrapped[0] = VERSION;
+            byte[] iv = new byte[IV_LENGTH];
+            sRandom.nextBytes(iv);
+            System.arraycopy(iv, 0, wrapped, 1, IV_LENGTH);
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.ENCRYPT_MODE, wrappingKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(descriptor.getBytes(UTF_8));
+            cipher.doFinal(encodedKey, 0, encodedKey.length, wrapped, 1 + IV_LENGTH);
+            return wrapped;
+        } catch (GeneralSecurityException e) {
+            throw new VaultError("Error wrapping vault key");
+        } finally {
+            Arrays.fill(encodedKey, (byte) 0);
+        }
+    }
+
+    /**
+     * @return null if the key wasn't wrapped by wrappingKey for this vault
+     */
+    static SecretKey unwrap(SecretKey wrappingKey, byte[] wrapped, String descriptor) {
+        if (wrapped.length <= 1 + IV_LENGTH + TAG_LENGTH || wrapped[0] != VERSION) {
+            return null;
+        }
+        byte[] encodedKey = null;
+        try {
+            Cipher cipher = VaultCrypto.getCipher(CIPHER_TRANSFORM, Cipher.DECRYPT_MODE, wrappingKey, new GCMParameterSpec(TAG_LENGTH * 8, wrapped, 1, IV_LENGTH));
+            cipher.updateAAD(descriptor.getBytes(UTF_8));
+            encodedKey = cipher.doFinal(wrapped, 1 + IV_LENGTH, wrapped.length - 1 - IV_LENGTH);
+            return new SecretKeySpec(encodedKey, EncryptionConstants.AES_CIPHER);
+        } catch (GeneralSecurityException e) {
+            return null;
+        } finally {
+            if (encodedKey != null) {
+                Arrays.fill(encodedKey, (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.ionicframework.auth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    Process wide latency histograms, counts and error codes for plugin actions and the expensive
+    operations underneath them (key derivation, keystore checks, the biometric prompt).
+
+    Recording doesn't allocate once an operation has been seen. Durations go into power of two
+    buckets of microseconds, so percentiles are reported as the upper bound of their bucket.
+    Listeners see every recorded operation on the thread that recorded it and must return quickly.
+ */
+public class VaultMetrics {
+    public static final int SUCCESS = -1;
+
+    public static final String KDF_DERIVE_KEY = "kdf.deriveKey";
+    public static final String KEYSTORE_DETECT_FINGERPRINTS_CHANGED = "keystore.detectFingerprintsChanged";
+    public static final String BIOMETRIC_PROMPT = "biometric.prompt";
+
+    // bucket i holds durations under 2^i microseconds, the last one everything longer
+    final private static int BUCKET_COUNT = 24;
+    final private static int ERROR_CODE_COUNT = 32;
+
+    public interface Listener {
+        /**
+         * @param errorCode {@link #SUCCESS} or one of the {@link VaultErrors} codes
+         */
+        void onOperation(String operation, long durationNanos, int errorCode);
+    }
+
+    interface Operation<T> {
+        T run() throws VaultError;
+    }
+
+    private volatile ConcurrentHashMap<String, OperationMetrics> mOperations = new ConcurrentHashMap<>();
+    private volatile Listener[] mListeners = new Listener[0];
+    private volatile long mSince = System.currentTimeMillis();
+
+    private static class SingletonHolder {
+        public static final VaultMetrics instance = new VaultMetrics();
+    }
+
+    public static VaultMetrics getInstance() { return SingletonHolder.instance; }
+
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] listeners = new Listener[mListeners.length + 1];
+        System.arraycopy(mListeners, 0, listeners, 0, mListeners.length);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i] == listener) {
+                Listener[] listeners = new Listener[mListeners.length - 1];
+                System.arraycopy(mListeners, 0, listeners, 0, i);
+                System.arraycopy(mListeners, i + 1, listeners, i, mListeners.length - i - 1);
+                mListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Record an operation that started at {@code startNanos} (from {@link #now()}) and just finished
+     */
+    public void record(String operation, long startNanos, int errorCode) {
+        long duration = Math.max(now() - startNanos, 0);
+        OperationMetrics metrics = mOperations.get(operation);
+        if (metrics == null) {
+            OperationMetrics created = new OperationMetrics();
+            metrics = mOperations.putIfAbsent(operation, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        metrics.record(duration, errorCode);
+        for (Listener listener : mListeners) {
+            listener.onOperation(operation, duration, errorCode);
+        }
+    }
+
+    <T> T time(String operation, Operation<T> op) throws VaultError {
+        long start = now();
+        try {
+            T result = op.run();
+            record(operation, start, SUCCESS);
+            return result;
+        } catch (VaultError e) {
+            record(operation, start, VaultErrors.getCode(e));
+            throw e;
+        }
+    }
+
+    public JSONObject toJSONObject(boolean reset) throws VaultError {
+        Map<String, OperationMetrics> operations = mOperations;
+        long since = mSince;
+        if (reset) {
+            mOperations = new ConcurrentHashMap<>();
+            mSince = System.currentTimeMillis();
+        }
+        try {
+            JSONObject j = new JSONObject();
+            j.put("since", since);
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+                buckets.put(1L << i);
+            }
+            j.put("bucketsMicros", buckets);
+            JSONObject ops = new JSONObject();
+            for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+                ops.put(entry.getKey(), entry.getValue().toJSONObject());
+            }
+            j.put("operations", ops);
+            return j;
+        } catch (JSONException e) {
+            throw new VaultError("Error converting metrics to JSON");
+        }
+    }
+
+    private static class OperationMetrics {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKET_COUNT);
+        // index 0 counts codes outside the known range
+        final AtomicLongArray errorCodes = new AtomicLongArray(ERROR_CODE_COUNT);
+
+        void record(long durationNanos, int errorCode) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(durationNanos);
+            long max = maxNanos.get();
+            while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos)) {
+                max = maxNanos.get();
+            }
+            histogram.incrementAndGet(getBucket(durationNanos));
+            if (errorCode != SUCCESS) {
+                errors.incrementAndGet();
+                errorCodes.incrementAndGet(errorCode > 0 && errorCode < ERROR_CODE_COUNT ? errorCode : 0);
+            }
+        }
+
+        static int getBucket(long durationNanos) {
+            long micros = durationNanos / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            return Math.min(bucket, BUCKET_COUNT - 1);
+        }
+
+        static double toMillis(long nanos) {
+            return nanos / 1000000.0;
+        }
+
+        // upper bound of the bucket holding the given percentile, never above the max, in ms
+        double getPercentile(long[] buckets, long total, double percentile) {
+            double max = toMillis(maxNanos.get());
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min((1L << i) / 1000.0, max);
+                }
+            }
+            return max;
+        }
+
+        JSONObject toJSONObject() throws JSONException {
+            long[] buckets = new long[BUCKET_COUNT];
+            long total = 0;
+            JSONArray histogramJson = new JSONArray();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = histogram.get(i);
+                total += buckets[i];
+                histogramJson.put(buckets[i]);
+            }
+            JSONObject errorCodesJson = new JSONObject();
+            for (int i = 0; i < ERROR_CODE_COUNT; i++) {
+                long n = errorCodes.get(i);
+                if (n > 0) {
+                    errorCodesJson.put(String.valueOf(i), n);
+                }
+            }
+
+            JSONObject j = new JSONObject();
+            long n = count.get();
+            j.put("count", n);
+            j.put("errors", errors.get());
+            j.put("totalMs", toMillis(totalNanos.get()));
+            j.put("meanMs", n == 0 ? 0 : toMillis(totalNanos.get() / n));
+            j.put("maxMs", toMillis(maxNanos.get()));
+            if (total > 0) {
+                j.put("p50Ms", getPercentile(buckets, total, 0.5));
+                j.put("p90Ms", getPercentile(buckets, total, 0.9));
+                j.put("p99Ms", getPercentile(buckets, total, 0.99));
+            }
+            j.put("histogram", histogramJson);
+            j.put("errorCodes", errorCodesJson);
+            return j;
+        }
+    }
+}
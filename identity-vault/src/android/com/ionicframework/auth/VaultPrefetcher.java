@@ -0,0 +1,97 @@
+package com.ionicframework.auth;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import com.bottlerocketstudios.vault.EncryptionConstants;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+
+/*
+    Opt-in warm start (androidPrefetch). The setup options of vaults created while it's enabled are
+    remembered in the config vault, and the next time the plugin loads those vaults are constructed
+    in the background, together with the crypto providers and capability probes they need, so the
+    app's first setup and reads find them ready.
+ */
+class VaultPrefetcher {
+    final private static String TAG = "VaultPrefetcher";
+    final private static String PREFETCH_FLAG = "prefetch";
+    // state vault entry, vault states are keyed by "<username>:<vaultId>" so this can't collide
+    final private static String PREFETCH_KEY = "prefetch";
+
+    static boolean isEnabled(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences("com.ionicframework.iv", Context.MODE_PRIVATE)
+                .getBoolean(PREFETCH_FLAG, false);
+    }
+
+    static void setEnabled(Context context, boolean enabled) {
+        context.getApplicationContext()
+                .getSharedPreferences("com.ionicframework.iv", Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(PREFETCH_FLAG, enabled)
+                .apply();
+    }
+
+    static void remember(Context context, VaultDescriptor descriptor, JSONObject options) throws VaultError {
+        IonicStateVault stateVault = VaultFactory.getStateVault(context);
+        JSONObject vaults = stateVault.getState(PREFETCH_KEY);
+        if (vaults == null) {
+            vaults = new JSONObject();
+        }
+        JSONObject remembered = vaults.optJSONObject(descriptor.getUniqueId());
+        if (remembered != null && remembered.toString().equals(options.toString())) {
+            return;
+        }
+        try {
+            vaults.put(descriptor.getUniqueId(), options);
+        } catch (JSONException e) {
+            throw new VaultError("Error storing prefetch configuration");
+        }
+        stateVault.storeState(PREFETCH_KEY, vaults);
+    }
+
+    static List<JSONObject> getRememberedVaults(Context context) throws VaultError {
+        List<JSONObject> options = new ArrayList<>();
+        JSONObject vaults = VaultFactory.getStateVault(context).getState(PREFETCH_KEY);
+        if (vaults == null) {
+            return options;
+        }
+        Iterator<String> ids = vaults.keys();
+        while (ids.hasNext()) {
+            JSONObject vaultOptions = vaults.optJSONObject(ids.next());
+            if (vaultOptions != null) {
+                options.add(vaultOptions);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Load the providers the vaults use so the first real operation doesn't pay for their lookup
+     */
+    static void warmUp(Context context) {
+        try {
+            String transform = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    ? EncryptionConstants.AES_CBC_PADDED_TRANSFORM_ANDROID_M
+                    : EncryptionConstants.AES_CBC_PADDED_TRANSFORM;
+            Cipher.getInstance(transform);
+            SecretKeyFactory.getInstance(KdfPolicy.PBKDF2_SHA1);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                VaultCrypto.getAndroidKeyStore();
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to warm up crypto providers", e);
+        }
+        BiometricCapabilities.get(context);
+    }
+}
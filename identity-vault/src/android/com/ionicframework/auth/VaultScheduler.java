@@ -0,0 +1,42 @@
+package com.ionicframework.auth;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+    The one thread every vault's lock deadlines run on and its events are sent from, started when
+    it is first needed.
+    Cancelled deadlines are dropped from the queue right away so arming and cancelling them doesn't
+    pile up tasks.
+
+    The executor measures delays with a clock that stops while the device sleeps, so a deadline can
+    fire late. Callers compare SystemClock.elapsedRealtime() against their own deadline when it
+    matters (e.g. when the app returns to the foreground) rather than relying on it firing on time.
+ */
+class VaultScheduler {
+    final private ScheduledThreadPoolExecutor mExecutor;
+
+    private static class SingletonHolder {
+        public static final VaultScheduler instance = new VaultScheduler();
+    }
+
+    static VaultScheduler getInstance() { return SingletonHolder.instance; }
+
+    private VaultScheduler() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "IonicVaultScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    void execute(Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return mExecutor.schedule(task, Math.max(delayMillis, 0), TimeUnit.MILLISECONDS);
+    }
+}
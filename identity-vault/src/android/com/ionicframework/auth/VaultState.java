@@ -3,9 +3,7 @@ package com.ionicframework.auth;
 import android.util.Base64;
 
 import com.bottlerocketstudios.vault.keys.generator.Aes256KeyFromPasswordFactory;
-import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
 import com.bottlerocketstudios.vault.salt.PrngSaltGenerator;
-import com.bottlerocketstudios.vault.salt.SpecificSaltGenerator;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -13,6 +11,14 @@ import org.json.JSONObject;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
+/*
+    The persisted configuration of a vault. Changes are written with storeState(), operations that
+    change several fields wrap them in beginEdit()/endEdit() so the state is encrypted and written
+    once when the outermost edit ends, and only if it differs from what was last written. An edit that
+    fails ends with abortEdit() instead, which puts back the state as it was last written. Only the
+    state is put back, an operation that also changes keys or records elsewhere writes the state
+    before making those changes.
+ */
 public class VaultState {
 
     final private String BIO_FLAG = "biometricsEnabled";
@@ -23,8 +29,16 @@ public class VaultState {
     final private String SECURE_STORAGE_KEY_ALGORITHM = "STORAGE_KEY_ALGORITHM";
     final private String IN_USE_FLAG = "inUse";
     final private String SALT_KEY = "salt";
+    final private String KDF_KEY = "kdf";
+    final private String WRAPPED_KEY = "wrappedKey";
+    final private String BIOMETRIC_WRAPPED_KEY = "biometricWrappedKey";
+    final private String GROUP_WRAPPED_KEY = "groupWrappedKey";
+    final private String UNLOCK_GROUP_KEY = "unlockGroupKey";
+    final private String STORAGE_BACKEND_KEY = "storage";
+    final private String GCM_RECORDS_FLAG = "gcmRecords";
     final private IonicStateVault mStateVault;
     final private String mDescriptor;
+    final private boolean mBioAvailable;
     private boolean secureStorageModeEnabled;
     public boolean biometricsEnabled;
     public boolean passcodeEnabled;
@@ -32,13 +46,41 @@ public class VaultState {
     public boolean passcodeSetup;
     public boolean inUse;
     public byte[] salt;
+    // the data key wrapped by the passcode key, see VaultKeyWrap. Passcode vaults set up before data
+    // keys were wrapped don't have one, their passcode key is their data key
+    public byte[] wrappedKey;
+    // the data key wrapped for the biometric prompt, see BiometricKeyWrap
+    public byte[] biometricWrappedKey;
+    // the data key wrapped by the group key of the vault's unlock group (its unlockGroupKey)
+    public byte[] groupWrappedKey;
+    // the key the vaults of this vault's unlock group are wrapped with, wrapped by the data key
+    public byte[] unlockGroupKey;
+    public KdfPolicy kdfPolicy;
+    public String storageBackend;
+    public boolean gcmRecords;
+    private int mEditDepth = 0;
+    private boolean mDirty = false;
+    private String mStoredState;
 
     VaultState(IonicStateVault stateVault, String descriptor, boolean isBioAvailable) {
         mStateVault = stateVault;
         mDescriptor = descriptor;
+        mBioAvailable = isBioAvailable;
+        load();
+    }
+
+    private void load() {
+        secureStorageKey = null;
+        salt = null;
+        wrappedKey = null;
+        biometricWrappedKey = null;
+        groupWrappedKey = null;
+        unlockGroupKey = null;
+        kdfPolicy = null;
+        storageBackend = null;
         JSONObject previousState = mStateVault.getState(mDescriptor);
         if (previousState != null) {
-            biometricsEnabled = previousState.optBoolean(BIO_FLAG, isBioAvailable);
+            biometricsEnabled = previousState.optBoolean(BIO_FLAG, mBioAvailable);
             passcodeEnabled = previousState.optBoolean(PASSCODE_FLAG, false);
             secureStorageModeEnabled = previousState.optBoolean(SECURE_STORAGE_MODE_FLAG, false);
             if (secureStorageModeEnabled) {
@@ -55,10 +97,30 @@ public class VaultState {
             if (encodedSalt != null) {
                 salt = Base64.decode(encodedSalt, Base64.DEFAULT);
             }
+            String encodedWrappedKey = previousState.optString(WRAPPED_KEY, null);
+            if (encodedWrappedKey != null) {
+                wrappedKey = Base64.decode(encodedWrappedKey, Base64.DEFAULT);
+            }
+            String encodedBiometricWrappedKey = previousState.optString(BIOMETRIC_WRAPPED_KEY, null);
+            if (encodedBiometricWrappedKey != null) {
+                biometricWrappedKey = Base64.decode(encodedBiometricWrappedKey, Base64.DEFAULT);
+            }
+            String encodedGroupWrappedKey = previousState.optString(GROUP_WRAPPED_KEY, null);
+            if (encodedGroupWrappedKey != null) {
+                groupWrappedKey = Base64.decode(encodedGroupWrappedKey, Base64.DEFAULT);
+            }
+            String encodedUnlockGroupKey = previousState.optString(UNLOCK_GROUP_KEY, null);
+            if (encodedUnlockGroupKey != null) {
+                unlockGroupKey = Base64.decode(encodedUnlockGroupKey, Base64.DEFAULT);
+            }
+            kdfPolicy = KdfPolicy.fromJSONObject(previousState.optJSONObject(KDF_KEY));
+            storageBackend = previousState.optString(STORAGE_BACKEND_KEY, null);
+            // a vault's storage that switched to GCM records keeps writing them, stored yet or not
+            gcmRecords = gcmRecords || previousState.optBoolean(GCM_RECORDS_FLAG, false);
 
             return;
         }
-        biometricsEnabled = isBioAvailable;
+        biometricsEnabled = mBioAvailable;
         passcodeEnabled = false;
         passcodeSetup = false;
         secureStorageModeEnabled = false;
@@ -70,11 +132,14 @@ public class VaultState {
         salt = prngSaltGenerator.createSaltBytes(Aes256KeyFromPasswordFactory.SALT_SIZE_BYTES);
     }
 
-    public void enableSecureStorage(boolean enable) throws VaultError {
+    /**
+     * @param dataKey the vault's data key, kept in the state while secure storage mode is on
+     */
+    public void enableSecureStorage(boolean enable, SecretKey dataKey) throws VaultError {
         if (secureStorageModeEnabled == enable) { return; }
         secureStorageModeEnabled = enable;
         if (secureStorageModeEnabled) {
-            secureStorageKey = Aes256RandomKeyFactory.createKey();
+            secureStorageKey = dataKey;
         } else {
             secureStorageKey = null;
         }
@@ -85,14 +150,72 @@ public class VaultState {
         return secureStorageModeEnabled;
     }
 
-    public SpecificSaltGenerator getSaltGenerator() {
+    public byte[] getSalt() {
         if (salt == null) {
             newSalt();
         }
-        return new SpecificSaltGenerator(salt);
+        return salt;
+    }
+
+    /**
+     * The policy the current passcode key was derived with, vaults that predate policies used the legacy one
+     */
+    public KdfPolicy getKdfPolicy() {
+        return kdfPolicy == null ? KdfPolicy.legacy() : kdfPolicy;
+    }
+
+    /**
+     * The VaultStorage backend holding this vault's records. Vaults that already hold data stay in the
+     * backend they were written to, others take the configured default.
+     */
+    public String getStorageBackend(String defaultBackend) {
+        if (storageBackend == null) {
+            storageBackend = inUse ? VaultStorage.BACKEND_PREFERENCES : defaultBackend;
+        }
+        return storageBackend;
+    }
+
+    /**
+     * Whether this vault writes GCM records. Any vault switches when they're the configured default,
+     * its CBC records are upgraded as they're rewritten, but there's no going back once it has.
+     */
+    public boolean useGcmRecords(boolean enabledByDefault) {
+        gcmRecords = gcmRecords || enabledByDefault;
+        return gcmRecords;
+    }
+
+    /**
+     * Defer storeState() calls until the matching endEdit(), edits may be nested
+     */
+    public void beginEdit() {
+        mEditDepth++;
+    }
+
+    public void endEdit() throws VaultError {
+        mEditDepth--;
+        if (mEditDepth == 0 && mDirty) {
+            storeState();
+        }
+    }
+
+    /**
+     * End an edit that failed part way, nothing it changed is written. The outermost edit reloads
+     * the state last written, the changes of every edit it contains are dropped with it.
+     */
+    public void abortEdit() {
+        mEditDepth--;
+        if (mEditDepth == 0) {
+            mDirty = false;
+            load();
+        }
     }
 
     public void storeState() throws  VaultError {
+        if (mEditDepth > 0) {
+            mDirty = true;
+            return;
+        }
+        mDirty = false;
         try {
             JSONObject state = new JSONObject();
             state.put(BIO_FLAG, biometricsEnabled);
@@ -115,7 +238,40 @@ public class VaultState {
                 String encodedSalt = Base64.encodeToString(salt, Base64.DEFAULT);
                 state.put(SALT_KEY, encodedSalt);
             }
-            mStateVault.storeState(mDescriptor, state);
+
+            if (wrappedKey != null) {
+                state.put(WRAPPED_KEY, Base64.encodeToString(wrappedKey, Base64.DEFAULT));
+            }
+
+            if (biometricWrappedKey != null) {
+                state.put(BIOMETRIC_WRAPPED_KEY, Base64.encodeToString(biometricWrappedKey, Base64.DEFAULT));
+            }
+
+            if (groupWrappedKey != null) {
+                state.put(GROUP_WRAPPED_KEY, Base64.encodeToString(groupWrappedKey, Base64.DEFAULT));
+            }
+
+            if (unlockGroupKey != null) {
+                state.put(UNLOCK_GROUP_KEY, Base64.encodeToString(unlockGroupKey, Base64.DEFAULT));
+            }
+
+            if (kdfPolicy != null) {
+                state.put(KDF_KEY, kdfPolicy.toJSONObject());
+            }
+
+            if (storageBackend != null) {
+                state.put(STORAGE_BACKEND_KEY, storageBackend);
+            }
+
+            if (gcmRecords) {
+                state.put(GCM_RECORDS_FLAG, true);
+            }
+            String encoded = state.toString();
+            if (encoded.equals(mStoredState)) {
+                return;
+            }
+            mStateVault.storeState(mDescriptor, encoded);
+            mStoredState = encoded;
         } catch (JSONException e) {
             throw new VaultError("Error storing state configuration");
         }
@@ -0,0 +1,41 @@
+package com.ionicframework.auth;
+
+/*
+    Where an IonicSharedPreferenceVault keeps its records. Implementations store each named record
+    encrypted under the vault's current key, so a value always reads back with the key that was
+    current when it was put. Reading a record written under a different key throws a RuntimeException,
+    the same as the bottlerocket vault does with exceptions enabled.
+
+    Changes made through an Editor become visible together when it is applied or committed and are
+    never partially persisted.
+ */
+public interface VaultStorage {
+    String BACKEND_PREFERENCES = "preferences";
+    String BACKEND_FILE = "file";
+
+    String getString(String name);
+
+    // records put with putBytes, a record put as a string reads back as its UTF-8 bytes
+    byte[] getBytes(String name);
+
+    boolean contains(String name);
+
+    Editor edit();
+
+    void clear();
+
+    interface Editor {
+
+        Editor putString(String name, String value);
+
+        Editor putBytes(String name, byte[] value);
+
+        Editor remove(String name);
+
+        // persist without waiting for the data to reach the disk, a failed write is only logged
+        void apply();
+
+        // persist and wait for the data to reach the disk, false if the changes couldn't be written
+        boolean commit();
+    }
+}
@@ -0,0 +1,200 @@
+package com.ionicframework.auth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/*
+    Binary encoding of stored values. A record is a format version byte followed by a tagged value,
+    strings and containers carry their length up front so decoding never scans for delimiters and
+    numbers keep their exact Java type (an Integer doesn't come back as a Long or a Float as a Double).
+    Lengths and integers are varints (zigzag for signed values), so small ones take a single byte.
+ */
+class VaultValueCodec {
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+
+    final private static byte VERSION_1 = 1;
+
+    final private static byte TAG_NULL = 0;
+    final private static byte TAG_STRING = 1;
+    final private static byte TAG_INT = 2;
+    final private static byte TAG_LONG = 3;
+    final private static byte TAG_FLOAT = 4;
+    final private static byte TAG_DOUBLE = 5;
+    final private static byte TAG_TRUE = 6;
+    final private static byte TAG_FALSE = 7;
+    final private static byte TAG_ARRAY = 8;
+    final private static byte TAG_OBJECT = 9;
+
+    static byte[] encode(Object value) throws VaultError {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION_1);
+            write(out, value);
+            out.flush();
+        } catch (IOException | JSONException e) {
+            throw new VaultError("Error storing value");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the stored value, null if the record is unreadable
+     */
+    static Object decode(byte[] record) {
+        if (record == null || record.length == 0) {
+            return null;
+        }
+        try {
+            if (record[0] != VERSION_1) {
+                return null;
+            }
+            ByteBuffer in = ByteBuffer.wrap(record, 1, record.length - 1);
+            Object value = read(in);
+            return in.hasRemaining() ? null : value;
+        } catch (JSONException | BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void write(DataOutputStream out, Object value) throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            byte[] string = ((String) value).getBytes(UTF_8);
+            out.writeByte(TAG_STRING);
+            writeVarLong(out, string.length);
+            out.write(string);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TAG_INT);
+            writeVarLong(out, zigzag(((Number) value).intValue()));
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            writeVarLong(out, zigzag((Long) value));
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Number) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            out.writeByte(TAG_ARRAY);
+            writeVarLong(out, array.length());
+            for (int i = 0; i < array.length(); i++) {
+                write(out, array.opt(i));
+            }
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            out.writeByte(TAG_OBJECT);
+            writeVarLong(out, object.length());
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                byte[] name = key.getBytes(UTF_8);
+                writeVarLong(out, name.length);
+                out.write(name);
+                write(out, object.get(key));
+            }
+        } else {
+            // anything else (e.g. a Character) is stored the way JSON would have stored it
+            write(out, value.toString());
+        }
+    }
+
+    private static Object read(ByteBuffer in) throws JSONException {
+        byte tag = in.get();
+        switch (tag) {
+            case TAG_NULL:
+                return JSONObject.NULL;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_INT:
+                return (int) unzigzag(readVarLong(in));
+            case TAG_LONG:
+                return unzigzag(readVarLong(in));
+            case TAG_FLOAT:
+                return in.getFloat();
+            case TAG_DOUBLE:
+                return in.getDouble();
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_ARRAY: {
+                int length = readLength(in);
+                JSONArray array = new JSONArray();
+                for (int i = 0; i < length; i++) {
+                    array.put(read(in));
+                }
+                return array;
+            }
+            case TAG_OBJECT: {
+                int length = readLength(in);
+                JSONObject object = new JSONObject();
+                for (int i = 0; i < length; i++) {
+                    String key = readString(in);
+                    object.put(key, read(in));
+                }
+                return object;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value tag " + tag);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readLength(in);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // every entry takes at least a byte, a length beyond what's left can only be corruption
+    private static int readLength(ByteBuffer in) {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return (int) length;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,37 @@
+package com.ionicframework.auth;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.objenesis.ObjenesisStd;
+
+/*
+    An Activity that was never attached to the framework. Activity's constructor needs a Looper, so
+    instances are allocated without running it and only the context methods the plugin uses are
+    answered.
+ */
+class BenchmarkActivity extends Activity {
+    private BenchmarkContext mContext;
+
+    static BenchmarkActivity create(BenchmarkContext context) {
+        BenchmarkActivity activity = new ObjenesisStd().newInstance(BenchmarkActivity.class);
+        activity.mContext = context;
+        return activity;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return mContext;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return mContext.getSharedPreferences(name, mode);
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.ionicframework.auth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/*
+    A callback the benchmark thread can wait on, the result is the message as it would be handed to
+    the WebView. Streamed results complete with their final message, the earlier ones are kept.
+ */
+class BenchmarkCallbackContext extends CallbackContext {
+    private final CompletableFuture<String> mResult = new CompletableFuture<>();
+    private final List<PluginResult> mKept = new ArrayList<>();
+
+    BenchmarkCallbackContext(String callbackId) {
+        super(callbackId, null);
+    }
+
+    @Override
+    public void sendPluginResult(PluginResult pluginResult) {
+        if (pluginResult.getKeepCallback() && pluginResult.getStatus() == PluginResult.Status.OK.ordinal()) {
+            mKept.add(pluginResult);
+        } else if (pluginResult.getStatus() == PluginResult.Status.OK.ordinal()) {
+            mResult.complete(pluginResult.getMessage());
+        } else {
+            mResult.completeExceptionally(new IllegalStateException(pluginResult.getMessage()));
+        }
+    }
+
+    String await() throws InterruptedException, ExecutionException {
+        return mResult.get();
+    }
+
+    /**
+     * The results sent before the final one, only valid once await() returned
+     */
+    List<PluginResult> getKeptResults() {
+        return mKept;
+    }
+}
@@ -0,0 +1,77 @@
+package com.ionicframework.auth;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/*
+    An application context with its own scratch data directory, which is deleted when the JVM exits.
+    There are no system services.
+ */
+class BenchmarkContext extends ContextWrapper {
+    private final HashMap<String, BenchmarkSharedPreferences> mPreferences = new HashMap<>();
+    private final File mDataDir;
+
+    BenchmarkContext() {
+        super(null);
+        try {
+            mDataDir = Files.createTempDirectory("ionic-vault-benchmark").toFile();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(mDataDir)));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File getDir(String name) {
+        File dir = new File(mDataDir, name);
+        dir.mkdirs();
+        return dir;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return getDir("files");
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        synchronized (mPreferences) {
+            BenchmarkSharedPreferences prefs = mPreferences.get(name);
+            if (prefs == null) {
+                prefs = new BenchmarkSharedPreferences(new File(getDir("shared_prefs"), name.replace(':', '_') + ".xml"));
+                mPreferences.put(name, prefs);
+            }
+            return prefs;
+        }
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    @Override
+    public String getSystemServiceName(Class<?> serviceClass) {
+        return null;
+    }
+}
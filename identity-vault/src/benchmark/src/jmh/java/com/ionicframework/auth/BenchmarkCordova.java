@@ -0,0 +1,60 @@
+package com.ionicframework.auth;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Hosts a plugin the way CordovaWebView would, minus the WebView.
+ */
+class BenchmarkCordova implements CordovaInterface, CordovaWebView {
+    private final BenchmarkContext mContext = new BenchmarkContext();
+    private final BenchmarkActivity mActivity = BenchmarkActivity.create(mContext);
+    private final ExecutorService mThreadPool = Executors.newCachedThreadPool();
+
+    <T extends CordovaPlugin> T load(T plugin) {
+        plugin.privateInitialize(this, this, new CordovaPreferences());
+        return plugin;
+    }
+
+    void shutdown() {
+        mThreadPool.shutdown();
+    }
+
+    @Override
+    public Activity getActivity() {
+        return mActivity;
+    }
+
+    @Override
+    public Context getContext() {
+        return mContext;
+    }
+
+    @Override
+    public ExecutorService getThreadPool() {
+        return mThreadPool;
+    }
+
+    @Override
+    public void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode) {
+        throw new UnsupportedOperationException("No activities can be started in benchmarks");
+    }
+
+    @Override
+    public void setActivityResultCallback(CordovaPlugin plugin) {
+    }
+
+    @Override
+    public void sendPluginResult(PluginResult result, String callbackId) {
+    }
+}
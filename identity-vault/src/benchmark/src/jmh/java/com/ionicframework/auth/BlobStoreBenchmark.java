@@ -0,0 +1,84 @@
+package com.ionicframework.auth;
+
+import android.util.Base64;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/*
+    Storing and reading a document of blobSize bytes as a blob, compared to keeping it base64
+    encoded as an ordinary value the way apps had to before blobs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BlobStoreBenchmark {
+
+    @Param({"102400", "1048576", "5242880"})
+    public int blobSize;
+
+    private VaultBlobStore mBlobStore;
+    private IonicVault mVault;
+    private SecretKey mKey;
+    private byte[] mBlob;
+    private String mEncodedBlob;
+
+    @Setup
+    public void setup() throws Throwable {
+        BenchmarkContext context = new BenchmarkContext();
+        mKey = Aes256RandomKeyFactory.createKey();
+        mBlob = new byte[blobSize];
+        new Random(42).nextBytes(mBlob);
+        mEncodedBlob = Base64.encodeToString(mBlob, Base64.NO_WRAP);
+
+        mBlobStore = VaultFactory.getBlobStore(context, "blobs");
+        mBlobStore.store(mKey, "document", mBlob);
+        mVault = VaultFactory.getPasscodeVault(context, "blobs");
+        mVault.rekeyStorage(mKey);
+        mVault.storeValue("document", mEncodedBlob);
+    }
+
+    @Benchmark
+    public void storeBlob() throws VaultError {
+        mBlobStore.store(mKey, "document", mBlob);
+    }
+
+    @Benchmark
+    public long readBlob() throws VaultError {
+        final long[] read = {0};
+        mBlobStore.read(mKey, "document", new VaultBlobStore.Reader() {
+            @Override
+            public void onStart(long length) {
+            }
+
+            @Override
+            public void onData(byte[] data, int length) {
+                read[0] += length;
+            }
+        });
+        return read[0];
+    }
+
+    @Benchmark
+    public void storeEncodedValue() throws VaultError {
+        mVault.storeValue("document", mEncodedBlob);
+    }
+
+    @Benchmark
+    public Object getEncodedValue() throws VaultError {
+        return mVault.getStoredValue("document");
+    }
+}
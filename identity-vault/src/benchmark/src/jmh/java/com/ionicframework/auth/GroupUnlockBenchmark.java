@@ -0,0 +1,81 @@
+package com.ionicframework.auth;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Unlocking vaultCount passcode vaults of one user, each with its own passcode or all of them
+    through the vault of their unlock group.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GroupUnlockBenchmark {
+    private static final String PASSCODE = "1234";
+    private static final String GROUP = "group";
+
+    @Param({"1", "4", "16"})
+    public int vaultCount;
+
+    @Param({"false", "true"})
+    public boolean grouped;
+
+    private IdentityVault mGroup;
+    private IdentityVault[] mVaults;
+
+    @Setup
+    public void setup() throws Throwable {
+        BenchmarkActivity activity = BenchmarkActivity.create(new BenchmarkContext());
+        // vaults stay in the registry, every trial gets its own user
+        String username = "benchmark-" + vaultCount + "-" + grouped;
+        mGroup = createVault(activity, username, GROUP, null);
+        mVaults = new IdentityVault[vaultCount];
+        for (int i = 0; i < vaultCount; i++) {
+            mVaults[i] = createVault(activity, username, "vault" + i, grouped ? GROUP : null);
+        }
+    }
+
+    private static IdentityVault createVault(BenchmarkActivity activity, String username, String vaultId, String group) throws Throwable {
+        JSONObject options = new JSONObject()
+                .put("vaultId", vaultId)
+                .put("username", username);
+        if (group != null) {
+            options.put("androidUnlockGroup", group);
+        }
+        IdentityVault vault = IdentityVault.getFromRegistryOrCreate(activity, options);
+        vault.setPasscodeEnabled(true);
+        vault.setPasscode(PASSCODE);
+        vault.storeValue("session", SharedPreferenceVaultBenchmark.createValue(1024));
+        return vault;
+    }
+
+    @Setup(Level.Invocation)
+    public void lock() {
+        mGroup.lock(false);
+        for (IdentityVault vault : mVaults) {
+            vault.lock(false);
+        }
+    }
+
+    @Benchmark
+    public boolean unlock() throws VaultError {
+        if (grouped) {
+            mGroup.unlock(PASSCODE);
+        } else {
+            for (IdentityVault vault : mVaults) {
+                vault.unlock(PASSCODE);
+            }
+        }
+        return mVaults[vaultCount - 1].isLocked();
+    }
+}
@@ -0,0 +1,48 @@
+package com.ionicframework.auth;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Unlocking a passcode vault, dominated by deriving the key from the passcode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PasscodeUnlockBenchmark {
+    private static final String PASSCODE = "1234";
+
+    private IdentityVault mVault;
+
+    @Setup
+    public void setup() throws Throwable {
+        BenchmarkContext context = new BenchmarkContext();
+        JSONObject options = new JSONObject()
+                .put("vaultId", "unlock")
+                .put("username", "benchmark");
+        mVault = new IdentityVault(BenchmarkActivity.create(context), options);
+        mVault.setPasscodeEnabled(true);
+        mVault.setPasscode(PASSCODE);
+        mVault.storeValue("session", SharedPreferenceVaultBenchmark.createValue(1024));
+    }
+
+    @Setup(Level.Invocation)
+    public void lock() {
+        mVault.lock(false);
+    }
+
+    @Benchmark
+    public boolean unlock() throws VaultError {
+        mVault.unlock(PASSCODE);
+        return mVault.isLocked();
+    }
+}
@@ -0,0 +1,116 @@
+package com.ionicframework.auth;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Full round trips through IonicNativeAuth.execute, from the bridge arguments to the encoded
+    result, for a vault holding VAULT_SIZE values. The large value and blob are streamed back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PluginBridgeBenchmark {
+    private static final int VAULT_SIZE = 100;
+    private static final int BATCH_SIZE = 10;
+    private static final int LARGE_SIZE = 1024 * 1024;
+
+    @Param({"32", "4096"})
+    public int valueSize;
+
+    private BenchmarkCordova mCordova;
+    private IonicNativeAuth mPlugin;
+    private JSONObject mOptions;
+    private String mValue;
+    private int mCallbackId;
+
+    @Setup
+    public void setup() throws Throwable {
+        mCordova = new BenchmarkCordova();
+        mPlugin = mCordova.load(new IonicNativeAuth());
+        mOptions = new JSONObject()
+                .put("vaultId", "bridge" + valueSize)
+                .put("username", "benchmark");
+        mValue = SharedPreferenceVaultBenchmark.createValue(valueSize);
+
+        JSONObject values = new JSONObject();
+        for (int i = 0; i < VAULT_SIZE; i++) {
+            values.put("key" + i, mValue);
+        }
+        call("storeValues", new JSONArray().put(mOptions).put(values));
+
+        String large = SharedPreferenceVaultBenchmark.createValue(LARGE_SIZE);
+        call("storeValue", new JSONArray().put(mOptions).put("large").put(large));
+        String blob = Base64.encodeToString(large.getBytes("UTF-8"), Base64.NO_WRAP);
+        call("storeBlob", new JSONArray().put(mOptions).put("blob").put(blob));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPlugin.onDestroy();
+        mCordova.shutdown();
+    }
+
+    private String call(String action, JSONArray args) throws Exception {
+        BenchmarkCallbackContext callbackContext = new BenchmarkCallbackContext("IonicNativeAuth" + mCallbackId++);
+        mPlugin.execute(action, args, callbackContext);
+        return callbackContext.await();
+    }
+
+    @Benchmark
+    public String isLocked() throws Exception {
+        return call("isLocked", new JSONArray().put(mOptions));
+    }
+
+    @Benchmark
+    public String getValue() throws Exception {
+        return call("getValue", new JSONArray().put(mOptions).put("key1"));
+    }
+
+    @Benchmark
+    public String getLargeValue() throws Exception {
+        return call("getValue", new JSONArray().put(mOptions).put("large"));
+    }
+
+    @Benchmark
+    public String getBlob() throws Exception {
+        return call("getBlob", new JSONArray().put(mOptions).put("blob"));
+    }
+
+    @Benchmark
+    public String getValues() throws Exception {
+        JSONArray keys = new JSONArray();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            keys.put("key" + i);
+        }
+        return call("getValues", new JSONArray().put(mOptions).put(keys));
+    }
+
+    @Benchmark
+    public String getKeys() throws Exception {
+        return call("getKeys", new JSONArray().put(mOptions));
+    }
+
+    @Benchmark
+    public String storeValue() throws Exception {
+        return call("storeValue", new JSONArray().put(mOptions).put("key1").put(mValue));
+    }
+
+    @Benchmark
+    public String getMetrics() throws Exception {
+        return call("getMetrics", new JSONArray());
+    }
+}
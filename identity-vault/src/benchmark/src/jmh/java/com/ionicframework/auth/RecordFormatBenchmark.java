@@ -0,0 +1,51 @@
+package com.ionicframework.auth;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Writing and reading one value of valueSize characters in the preferences backend, encrypted by
+    the bottlerocket vault (CBC) or as a GCM record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordFormatBenchmark {
+
+    @Param({"1024", "16384", "262144", "1048576"})
+    public int valueSize;
+
+    @Param({"false", "true"})
+    public boolean gcmRecords;
+
+    private IonicVault mVault;
+    private String mValue;
+
+    @Setup
+    public void setup() throws Throwable {
+        mVault = VaultFactory.getPasscodeVault(new BenchmarkContext(), "records", VaultStorage.BACKEND_PREFERENCES, gcmRecords);
+        mVault.rekeyStorage(Aes256RandomKeyFactory.createKey());
+        mValue = SharedPreferenceVaultBenchmark.createValue(valueSize);
+        mVault.storeValue("value", mValue);
+    }
+
+    @Benchmark
+    public void storeValue() throws VaultError {
+        mVault.storeValue("value", mValue);
+    }
+
+    @Benchmark
+    public Object getStoredValue() throws VaultError {
+        return mVault.getStoredValue("value");
+    }
+}
@@ -0,0 +1,55 @@
+package com.ionicframework.auth;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Changing the passcode of a vault holding vaultSize values. It only rewraps the vault's data key,
+    so it shouldn't depend on the size of the vault.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RekeyBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int vaultSize;
+
+    @Param({VaultStorage.BACKEND_PREFERENCES, VaultStorage.BACKEND_FILE})
+    public String storageBackend;
+
+    private IdentityVault mPasscodeVault;
+
+    @Setup
+    public void setup() throws Throwable {
+        String value = SharedPreferenceVaultBenchmark.createValue(256);
+        JSONObject values = new JSONObject();
+        for (int i = 0; i < vaultSize; i++) {
+            values.put("key" + i, value);
+        }
+
+        BenchmarkContext context = new BenchmarkContext();
+        JSONObject options = new JSONObject()
+                .put("vaultId", "rekey:" + storageBackend + ":" + vaultSize)
+                .put("username", "benchmark")
+                .put("androidStorageBackend", storageBackend);
+        mPasscodeVault = new IdentityVault(BenchmarkActivity.create(context), options);
+        mPasscodeVault.setPasscodeEnabled(true);
+        mPasscodeVault.setPasscode("1234");
+        mPasscodeVault.storeValues(values);
+    }
+
+    @Benchmark
+    public void setPasscode() throws VaultError {
+        mPasscodeVault.setPasscode("1234");
+    }
+}
@@ -0,0 +1,105 @@
+package com.ionicframework.auth;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Reads and writes against a passcode vault that already holds vaultSize values of valueSize
+    characters each, for each VaultStorage backend.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SharedPreferenceVaultBenchmark {
+    private static final int BATCH_SIZE = 10;
+
+    @Param({"10", "1000", "10000"})
+    public int vaultSize;
+
+    @Param({"32", "1024", "4096"})
+    public int valueSize;
+
+    @Param({VaultStorage.BACKEND_PREFERENCES, VaultStorage.BACKEND_FILE})
+    public String storageBackend;
+
+    private IonicVault mVault;
+    private String mValue;
+    private Random mRandom;
+    private JSONArray mBatchKeys;
+    private JSONObject mBatchValues;
+
+    @Setup
+    public void setup() throws Throwable {
+        mVault = VaultFactory.getPasscodeVault(new BenchmarkContext(), "benchmark", storageBackend);
+        mVault.rekeyStorage(Aes256RandomKeyFactory.createKey());
+        mValue = createValue(valueSize);
+        mRandom = new Random(42);
+
+        JSONObject values = new JSONObject();
+        for (int i = 0; i < vaultSize; i++) {
+            values.put(key(i), mValue);
+        }
+        mVault.storeValues(values);
+
+        mBatchKeys = new JSONArray();
+        mBatchValues = new JSONObject();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mBatchKeys.put(key(i % vaultSize));
+            mBatchValues.put(key(i % vaultSize), mValue);
+        }
+    }
+
+    static String createValue(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+    private static String key(int i) {
+        return "key" + i;
+    }
+
+    private String randomKey() {
+        return key(mRandom.nextInt(vaultSize));
+    }
+
+    @Benchmark
+    public void storeValue() throws VaultError {
+        mVault.storeValue(randomKey(), mValue);
+    }
+
+    @Benchmark
+    public Object getStoredValue() throws VaultError {
+        return mVault.getStoredValue(randomKey());
+    }
+
+    @Benchmark
+    public JSONArray getKeys() throws VaultError {
+        return mVault.getKeys();
+    }
+
+    @Benchmark
+    public JSONObject getValues() throws VaultError {
+        return mVault.getValues(mBatchKeys);
+    }
+
+    @Benchmark
+    public void storeValues() throws VaultError {
+        mVault.storeValues(mBatchValues);
+    }
+}
@@ -0,0 +1,72 @@
+package com.ionicframework.auth;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/*
+    Loading and persisting the per-vault state, which happens on every vault open and most
+    configuration changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VaultStateBenchmark {
+    private static final String DESCRIPTOR = "benchmark:state";
+
+    private IonicStateVault mStateVault;
+    private VaultState mState;
+    private SecretKey mKey;
+
+    @Setup
+    public void setup() throws Throwable {
+        mKey = Aes256RandomKeyFactory.createKey();
+        mStateVault = VaultFactory.getStateVault(new BenchmarkContext());
+        mState = new VaultState(mStateVault, DESCRIPTOR, false);
+        mState.passcodeEnabled = true;
+        mState.newSalt();
+        mState.kdfPolicy = KdfPolicy.legacy();
+        mState.storeState();
+    }
+
+    @Benchmark
+    public void storeState() throws VaultError {
+        // unchanged state isn't written again, so flip a flag to force a write
+        mState.biometricsEnabled = !mState.biometricsEnabled;
+        mState.storeState();
+    }
+
+    @Benchmark
+    public void storeStateUnchanged() throws VaultError {
+        mState.storeState();
+    }
+
+    @Benchmark
+    public void editState() throws VaultError {
+        mState.beginEdit();
+        try {
+            mState.biometricsEnabled = !mState.biometricsEnabled;
+            mState.storeState();
+            mState.passcodeSetup = !mState.passcodeSetup;
+            mState.storeState();
+            mState.enableSecureStorage(!mState.isSecureStorageModeEnabled(), mKey);
+        } finally {
+            mState.endEdit();
+        }
+    }
+
+    @Benchmark
+    public VaultState loadState() {
+        return new VaultState(mStateVault, DESCRIPTOR, false);
+    }
+}
@@ -0,0 +1,30 @@
+package android.os;
+
+/*
+    android.os.Build without the native VM queries its static initializer makes. Reports the
+    version from SystemProperties like the real class does.
+ */
+public class Build {
+    public static final String MANUFACTURER = "benchmark";
+    public static final String MODEL = "jvm";
+
+    private Build() {}
+
+    public static class VERSION {
+        public static final int SDK_INT = SystemProperties.getInt("ro.build.version.sdk", 0);
+        public static final String RELEASE = SystemProperties.get("ro.build.version.release");
+    }
+
+    public static class VERSION_CODES {
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int LOLLIPOP_MR1 = 22;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int N_MR1 = 25;
+        public static final int O = 26;
+        public static final int O_MR1 = 27;
+        public static final int P = 28;
+        public static final int Q = 29;
+    }
+}
@@ -0,0 +1,48 @@
+package android.os;
+
+import java.util.HashMap;
+
+/*
+    android.os.SystemProperties without the native property service. Only reports an SDK level so
+    Build.VERSION.SDK_INT resolves to a real device version.
+ */
+public class SystemProperties {
+    private static final HashMap<String, String> sProperties = new HashMap<>();
+
+    static {
+        sProperties.put("ro.build.version.sdk", "29");
+        sProperties.put("ro.build.version.release", "10");
+    }
+
+    private SystemProperties() {}
+
+    public static String get(String key) {
+        return get(key, "");
+    }
+
+    public static String get(String key, String def) {
+        String value = sProperties.get(key);
+        return value == null ? def : value;
+    }
+
+    public static int getInt(String key, int def) {
+        String value = sProperties.get(key);
+        return value == null ? def : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long def) {
+        String value = sProperties.get(key);
+        return value == null ? def : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String value = sProperties.get(key);
+        return value == null ? def : Boolean.parseBoolean(value);
+    }
+
+    public static void set(String key, String val) {
+        sProperties.put(key, val);
+    }
+
+    public static void addChangeCallback(Runnable callback) {}
+}
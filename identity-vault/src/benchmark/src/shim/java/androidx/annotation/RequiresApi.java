@@ -0,0 +1,14 @@
+package androidx.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+@Documented
+@Retention(CLASS)
+public @interface RequiresApi {
+    int value() default 1;
+
+    int api() default 1;
+}
@@ -0,0 +1,17 @@
+package androidx.biometric;
+
+public interface BiometricConstants {
+    int ERROR_HW_UNAVAILABLE = 1;
+    int ERROR_UNABLE_TO_PROCESS = 2;
+    int ERROR_TIMEOUT = 3;
+    int ERROR_NO_SPACE = 4;
+    int ERROR_CANCELED = 5;
+    int ERROR_LOCKOUT = 7;
+    int ERROR_VENDOR = 8;
+    int ERROR_LOCKOUT_PERMANENT = 9;
+    int ERROR_USER_CANCELED = 10;
+    int ERROR_NO_BIOMETRICS = 11;
+    int ERROR_HW_NOT_PRESENT = 12;
+    int ERROR_NEGATIVE_BUTTON = 13;
+    int ERROR_NO_DEVICE_CREDENTIAL = 14;
+}
@@ -0,0 +1,125 @@
+package androidx.biometric;
+
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
+
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+
+/*
+    Never shows a prompt, every authentication fails with ERROR_HW_NOT_PRESENT.
+ */
+public class BiometricPrompt implements BiometricConstants {
+    private final Executor mExecutor;
+    private final AuthenticationCallback mCallback;
+
+    public BiometricPrompt(FragmentActivity activity, Executor executor, AuthenticationCallback callback) {
+        mExecutor = executor;
+        mCallback = callback;
+    }
+
+    public BiometricPrompt(Fragment fragment, Executor executor, AuthenticationCallback callback) {
+        mExecutor = executor;
+        mCallback = callback;
+    }
+
+    public void authenticate(PromptInfo info) {
+        authenticate(info, null);
+    }
+
+    public void authenticate(PromptInfo info, CryptoObject crypto) {
+        mExecutor.execute(() -> mCallback.onAuthenticationError(ERROR_HW_NOT_PRESENT, "No biometric hardware"));
+    }
+
+    public void cancelAuthentication() {
+    }
+
+    public static class CryptoObject {
+        private final Cipher mCipher;
+
+        public CryptoObject(Cipher cipher) {
+            mCipher = cipher;
+        }
+
+        public Cipher getCipher() {
+            return mCipher;
+        }
+    }
+
+    public static class AuthenticationResult {
+        private final CryptoObject mCryptoObject;
+
+        public AuthenticationResult(CryptoObject crypto) {
+            mCryptoObject = crypto;
+        }
+
+        public CryptoObject getCryptoObject() {
+            return mCryptoObject;
+        }
+    }
+
+    public abstract static class AuthenticationCallback {
+        public void onAuthenticationError(int errorCode, CharSequence errString) {
+        }
+
+        public void onAuthenticationSucceeded(AuthenticationResult result) {
+        }
+
+        public void onAuthenticationFailed() {
+        }
+    }
+
+    public static class PromptInfo {
+        private final CharSequence mTitle;
+        private final CharSequence mDescription;
+
+        PromptInfo(CharSequence title, CharSequence description) {
+            mTitle = title;
+            mDescription = description;
+        }
+
+        public CharSequence getTitle() {
+            return mTitle;
+        }
+
+        public CharSequence getDescription() {
+            return mDescription;
+        }
+
+        public static class Builder {
+            private CharSequence mTitle;
+            private CharSequence mDescription;
+
+            public Builder setTitle(CharSequence title) {
+                mTitle = title;
+                return this;
+            }
+
+            public Builder setSubtitle(CharSequence subtitle) {
+                return this;
+            }
+
+            public Builder setDescription(CharSequence description) {
+                mDescription = description;
+                return this;
+            }
+
+            public Builder setDeviceCredentialAllowed(boolean allowed) {
+                return this;
+            }
+
+            public Builder setNegativeButtonText(CharSequence text) {
+                return this;
+            }
+
+            public Builder setConfirmationRequired(boolean required) {
+                return this;
+            }
+
+            public PromptInfo build() {
+                return new PromptInfo(mTitle, mDescription);
+            }
+        }
+    }
+}
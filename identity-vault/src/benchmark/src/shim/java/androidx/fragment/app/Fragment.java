@@ -0,0 +1,4 @@
+package androidx.fragment.app;
+
+public class Fragment {
+}
@@ -0,0 +1,6 @@
+package androidx.fragment.app;
+
+import android.app.Activity;
+
+public class FragmentActivity extends Activity {
+}
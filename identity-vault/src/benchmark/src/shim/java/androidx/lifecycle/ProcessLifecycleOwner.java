@@ -0,0 +1,38 @@
+package androidx.lifecycle;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+    A process lifecycle that stays resumed. Observers are kept so benchmarks can count them but no
+    events are ever delivered.
+ */
+public class ProcessLifecycleOwner {
+    private static final ProcessLifecycleOwner sInstance = new ProcessLifecycleOwner();
+
+    private final Lifecycle mLifecycle = new Lifecycle() {
+        private final CopyOnWriteArrayList<LifecycleObserver> mObservers = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void addObserver(LifecycleObserver observer) {
+            mObservers.add(observer);
+        }
+
+        @Override
+        public void removeObserver(LifecycleObserver observer) {
+            mObservers.remove(observer);
+        }
+
+        @Override
+        public State getCurrentState() {
+            return State.RESUMED;
+        }
+    };
+
+    public static ProcessLifecycleOwner get() {
+        return sInstance;
+    }
+
+    public Lifecycle getLifecycle() {
+        return mLifecycle;
+    }
+}
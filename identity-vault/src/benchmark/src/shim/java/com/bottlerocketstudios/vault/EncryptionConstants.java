@@ -0,0 +1,12 @@
+package com.bottlerocketstudios.vault;
+
+public class EncryptionConstants {
+    public static final String AES_CIPHER = "AES";
+    public static final String BLOCK_MODE_CBC = "CBC";
+    public static final String ENCRYPTION_PADDING_PKCS5 = "PKCS5Padding";
+    public static final String ENCRYPTION_PADDING_PKCS7 = "PKCS7Padding";
+    public static final String AES_CBC_PADDED_TRANSFORM = "AES/CBC/PKCS5Padding";
+    public static final String AES_CBC_PADDED_TRANSFORM_ANDROID_M = "AES/CBC/PKCS7Padding";
+    public static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    public static final int AES_256_KEY_LENGTH_BITS = 256;
+}
@@ -0,0 +1,16 @@
+package com.bottlerocketstudios.vault;
+
+import android.content.SharedPreferences;
+
+import javax.crypto.SecretKey;
+
+public interface SharedPreferenceVault extends SharedPreferences {
+
+    void clearStorage();
+
+    void rekeyStorage(SecretKey secretKey);
+
+    boolean isKeyAvailable();
+
+    void setKey(SecretKey secretKey);
+}
@@ -0,0 +1,38 @@
+package com.bottlerocketstudios.vault;
+
+import android.content.Context;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+import com.bottlerocketstudios.vault.keys.storage.MemoryOnlyKeyStorage;
+
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+
+import javax.crypto.SecretKey;
+
+/*
+    There is no AndroidKeyStore on the JVM, so keychain authentication is reported as unavailable and
+    app keyed vaults get a random key that lives as long as the process, the same lifetime as the
+    in-memory preferences backing them.
+ */
+public class SharedPreferenceVaultFactory {
+    private static final HashMap<String, SecretKey> sAppKeys = new HashMap<>();
+
+    public static boolean canUseKeychainAuthentication(Context context) {
+        return false;
+    }
+
+    public static SharedPreferenceVault getAppKeyedCompatAes256Vault(Context context, String prefFileName, String keyFileName, String keyAlias, int keyIndex, String presharedSecret, boolean enableExceptions) throws GeneralSecurityException {
+        SecretKey key;
+        synchronized (sAppKeys) {
+            key = sAppKeys.get(keyFileName);
+            if (key == null) {
+                key = Aes256RandomKeyFactory.createKey();
+                sAppKeys.put(keyFileName, key);
+            }
+        }
+        MemoryOnlyKeyStorage keyStorage = new MemoryOnlyKeyStorage();
+        keyStorage.saveKey(context, key);
+        return new StandardSharedPreferenceVault(context, keyStorage, prefFileName, EncryptionConstants.AES_CBC_PADDED_TRANSFORM, enableExceptions);
+    }
+}
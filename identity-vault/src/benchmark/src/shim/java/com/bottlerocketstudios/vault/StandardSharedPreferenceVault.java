@@ -0,0 +1,236 @@
+package com.bottlerocketstudios.vault;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import com.bottlerocketstudios.vault.keys.storage.KeyStorage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/*
+    Software AES version of the bottlerocket vault. Keys are stored in the clear and every value is
+    encrypted with the current key from the KeyStorage and written as Base64(iv + ciphertext), which
+    matches the amount of work the library does per read and write.
+ */
+public class StandardSharedPreferenceVault implements SharedPreferenceVault {
+    private static final int IV_LENGTH = 16;
+
+    private final Context mContext;
+    private final KeyStorage mKeyStorage;
+    private final SharedPreferences mPreferences;
+    private final String mTransform;
+    private final boolean mEnableExceptions;
+
+    public StandardSharedPreferenceVault(Context context, KeyStorage keyStorage, String prefFileName, String transform, boolean enableExceptions) {
+        mContext = context;
+        mKeyStorage = keyStorage;
+        mPreferences = context.getSharedPreferences(prefFileName, Context.MODE_PRIVATE);
+        // the JDK providers only know the PKCS5 name for the same padding
+        mTransform = transform.replace(EncryptionConstants.ENCRYPTION_PADDING_PKCS7, EncryptionConstants.ENCRYPTION_PADDING_PKCS5);
+        mEnableExceptions = enableExceptions;
+    }
+
+    @Override
+    public void clearStorage() {
+        mPreferences.edit().clear().commit();
+        mKeyStorage.clearKey(mContext);
+    }
+
+    @Override
+    public void rekeyStorage(SecretKey secretKey) {
+        clearStorage();
+        setKey(secretKey);
+    }
+
+    @Override
+    public boolean isKeyAvailable() {
+        return mKeyStorage.hasKey(mContext);
+    }
+
+    @Override
+    public void setKey(SecretKey secretKey) {
+        mKeyStorage.saveKey(mContext, secretKey);
+    }
+
+    private String encryptString(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            Cipher cipher = Cipher.getInstance(mTransform);
+            cipher.init(Cipher.ENCRYPT_MODE, loadKey());
+            byte[] iv = cipher.getIV();
+            byte[] cipherText = cipher.doFinal(value.getBytes(StandardCharsets.UTF_8));
+            byte[] output = Arrays.copyOf(iv, iv.length + cipherText.length);
+            System.arraycopy(cipherText, 0, output, iv.length, cipherText.length);
+            return Base64.encodeToString(output, Base64.NO_WRAP);
+        } catch (GeneralSecurityException e) {
+            return handleException(e);
+        }
+    }
+
+    private String decryptString(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] input = Base64.decode(value, Base64.NO_WRAP);
+            Cipher cipher = Cipher.getInstance(mTransform);
+            cipher.init(Cipher.DECRYPT_MODE, loadKey(), new IvParameterSpec(input, 0, IV_LENGTH));
+            byte[] plainText = cipher.doFinal(input, IV_LENGTH, input.length - IV_LENGTH);
+            return new String(plainText, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return handleException(e);
+        }
+    }
+
+    private SecretKey loadKey() throws GeneralSecurityException {
+        SecretKey key = mKeyStorage.loadKey(mContext);
+        if (key == null) {
+            throw new GeneralSecurityException("No key available");
+        }
+        return key;
+    }
+
+    private String handleException(Exception e) {
+        if (mEnableExceptions) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        HashMap<String, String> values = new HashMap<>();
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            values.put(entry.getKey(), decryptString((String) entry.getValue()));
+        }
+        return values;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = decryptString(mPreferences.getString(key, null));
+        return value == null ? defValue : value;
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        throw new UnsupportedOperationException("String sets are not supported");
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        String value = getString(key, null);
+        return value == null ? defValue : Integer.parseInt(value);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        String value = getString(key, null);
+        return value == null ? defValue : Long.parseLong(value);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        String value = getString(key, null);
+        return value == null ? defValue : Float.parseFloat(value);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        String value = getString(key, null);
+        return value == null ? defValue : Boolean.parseBoolean(value);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mPreferences.contains(key);
+    }
+
+    @Override
+    public SharedPreferences.Editor edit() {
+        return new EncryptingEditor(mPreferences.edit());
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mPreferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    private class EncryptingEditor implements SharedPreferences.Editor {
+        private final SharedPreferences.Editor mEditor;
+
+        EncryptingEditor(SharedPreferences.Editor editor) {
+            mEditor = editor;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            mEditor.putString(key, encryptString(value));
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            throw new UnsupportedOperationException("String sets are not supported");
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            return putString(key, String.valueOf(value));
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            return putString(key, String.valueOf(value));
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            return putString(key, String.valueOf(value));
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            return putString(key, String.valueOf(value));
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            mEditor.remove(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            mEditor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return mEditor.commit();
+        }
+
+        @Override
+        public void apply() {
+            mEditor.apply();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.bottlerocketstudios.vault.keys.generator;
+
+import com.bottlerocketstudios.vault.EncryptionConstants;
+import com.bottlerocketstudios.vault.salt.SaltGenerator;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class Aes256KeyFromPasswordFactory {
+    public static final int SALT_SIZE_BYTES = 512;
+    private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    public static SecretKey createKey(String password, int pbkdf2Iterations, SaltGenerator saltGenerator) {
+        byte[] salt = saltGenerator.createSaltBytes(SALT_SIZE_BYTES);
+        PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, pbkdf2Iterations, EncryptionConstants.AES_256_KEY_LENGTH_BITS);
+        try {
+            byte[] keyBytes = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(keySpec).getEncoded();
+            return new SecretKeySpec(keyBytes, EncryptionConstants.AES_CIPHER);
+        } catch (GeneralSecurityException e) {
+            return null;
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+}
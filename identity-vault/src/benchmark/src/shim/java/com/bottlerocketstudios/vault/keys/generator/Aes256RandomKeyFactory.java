@@ -0,0 +1,26 @@
+package com.bottlerocketstudios.vault.keys.generator;
+
+import com.bottlerocketstudios.vault.EncryptionConstants;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+public class Aes256RandomKeyFactory {
+
+    public static SecretKey createKey() {
+        return createKey(new SecureRandom());
+    }
+
+    public static SecretKey createKey(SecureRandom secureRandom) {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(EncryptionConstants.AES_CIPHER);
+            keyGenerator.init(EncryptionConstants.AES_256_KEY_LENGTH_BITS, secureRandom);
+            return keyGenerator.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.bottlerocketstudios.vault.keys.storage;
+
+import android.content.Context;
+
+import javax.crypto.SecretKey;
+
+public interface KeyStorage {
+
+    SecretKey loadKey(Context context);
+
+    boolean saveKey(Context context, SecretKey secretKey);
+
+    void clearKey(Context context);
+
+    boolean hasKey(Context context);
+}
@@ -0,0 +1,33 @@
+package com.bottlerocketstudios.vault.keys.storage;
+
+import android.content.Context;
+
+import javax.crypto.SecretKey;
+
+/*
+    Without an AndroidKeyStore there is never a stored key.
+ */
+public class KeychainAuthenticatedKeyStorage implements KeyStorage {
+
+    public KeychainAuthenticatedKeyStorage(String keyAlias, String algorithm, String blockMode, String padding, int authDurationSeconds) {
+    }
+
+    @Override
+    public SecretKey loadKey(Context context) {
+        return null;
+    }
+
+    @Override
+    public boolean saveKey(Context context, SecretKey secretKey) {
+        return false;
+    }
+
+    @Override
+    public void clearKey(Context context) {
+    }
+
+    @Override
+    public boolean hasKey(Context context) {
+        return false;
+    }
+}
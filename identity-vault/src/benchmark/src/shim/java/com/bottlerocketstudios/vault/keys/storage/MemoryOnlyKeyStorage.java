@@ -0,0 +1,30 @@
+package com.bottlerocketstudios.vault.keys.storage;
+
+import android.content.Context;
+
+import javax.crypto.SecretKey;
+
+public class MemoryOnlyKeyStorage implements KeyStorage {
+    private SecretKey mSecretKey;
+
+    @Override
+    public synchronized SecretKey loadKey(Context context) {
+        return mSecretKey;
+    }
+
+    @Override
+    public synchronized boolean saveKey(Context context, SecretKey secretKey) {
+        mSecretKey = secretKey;
+        return true;
+    }
+
+    @Override
+    public synchronized void clearKey(Context context) {
+        mSecretKey = null;
+    }
+
+    @Override
+    public synchronized boolean hasKey(Context context) {
+        return mSecretKey != null;
+    }
+}
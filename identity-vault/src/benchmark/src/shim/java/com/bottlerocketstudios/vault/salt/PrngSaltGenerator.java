@@ -0,0 +1,14 @@
+package com.bottlerocketstudios.vault.salt;
+
+import java.security.SecureRandom;
+
+public class PrngSaltGenerator implements SaltGenerator {
+    private static final SecureRandom sSecureRandom = new SecureRandom();
+
+    @Override
+    public byte[] createSaltBytes(int size) {
+        byte[] salt = new byte[size];
+        sSecureRandom.nextBytes(salt);
+        return salt;
+    }
+}
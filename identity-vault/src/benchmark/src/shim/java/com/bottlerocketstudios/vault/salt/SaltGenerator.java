@@ -0,0 +1,6 @@
+package com.bottlerocketstudios.vault.salt;
+
+public interface SaltGenerator {
+
+    byte[] createSaltBytes(int size);
+}
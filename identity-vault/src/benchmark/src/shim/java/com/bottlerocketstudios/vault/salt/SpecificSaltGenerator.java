@@ -0,0 +1,14 @@
+package com.bottlerocketstudios.vault.salt;
+
+public class SpecificSaltGenerator implements SaltGenerator {
+    private final byte[] mSalt;
+
+    public SpecificSaltGenerator(byte[] salt) {
+        mSalt = salt;
+    }
+
+    @Override
+    public byte[] createSaltBytes(int size) {
+        return mSalt;
+    }
+}
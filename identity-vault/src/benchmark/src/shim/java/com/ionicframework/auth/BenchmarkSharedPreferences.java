@@ -0,0 +1,227 @@
+package com.ionicframework.auth;
+
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+    SharedPreferences held in a map. Like the platform implementation, editors stage their changes and
+    apply them atomically, and every commit rewrites the whole map as XML to the backing file (synced
+    to disk for commit(), not for apply()).
+ */
+class BenchmarkSharedPreferences implements SharedPreferences {
+    private final File mFile;
+    private final HashMap<String, Object> mValues = new HashMap<>();
+    private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> mListeners = new CopyOnWriteArrayList<>();
+
+    BenchmarkSharedPreferences(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (mValues) {
+            return new HashMap<>(mValues);
+        }
+    }
+
+    private Object get(String key) {
+        synchronized (mValues) {
+            return mValues.get(key);
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = get(key);
+        return value == null ? defValue : (String) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = get(key);
+        return value == null ? defValues : (Set<String>) value;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = get(key);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = get(key);
+        return value == null ? defValue : (Long) value;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = get(key);
+        return value == null ? defValue : (Float) value;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = get(key);
+        return value == null ? defValue : (Boolean) value;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (mValues) {
+            return mValues.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new InMemoryEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private class InMemoryEditor implements Editor {
+        // a null value marks a removal
+        private final HashMap<String, Object> mChanges = new HashMap<>();
+        private boolean mClear;
+
+        private Editor put(String key, Object value) {
+            synchronized (this) {
+                mChanges.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return put(key, values == null ? null : new HashSet<>(values));
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return put(key, null);
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                mClear = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return commit(true);
+        }
+
+        @Override
+        public void apply() {
+            commit(false);
+        }
+
+        private boolean commit(boolean sync) {
+            synchronized (this) {
+                synchronized (mValues) {
+                    if (mClear) {
+                        mValues.clear();
+                    }
+                    for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                        if (change.getValue() == null) {
+                            mValues.remove(change.getKey());
+                        } else {
+                            mValues.put(change.getKey(), change.getValue());
+                        }
+                    }
+                    writeToFile(sync);
+                }
+                for (OnSharedPreferenceChangeListener listener : mListeners) {
+                    for (String key : mChanges.keySet()) {
+                        listener.onSharedPreferenceChanged(BenchmarkSharedPreferences.this, key);
+                    }
+                }
+                mChanges.clear();
+                mClear = false;
+            }
+            return true;
+        }
+    }
+
+    private void writeToFile(boolean sync) {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+        for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+            Object value = entry.getValue();
+            String type = value instanceof String ? "string" : value.getClass().getSimpleName().toLowerCase();
+            xml.append("    <").append(type).append(" name=\"");
+            escape(xml, entry.getKey());
+            xml.append("\">");
+            escape(xml, value.toString());
+            xml.append("</").append(type).append(">\n");
+        }
+        xml.append("</map>\n");
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+            if (sync) {
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error writing " + mFile, e);
+        }
+    }
+
+    private static void escape(StringBuilder out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '&': out.append("&amp;"); break;
+                case '"': out.append("&quot;"); break;
+                default: out.append(c);
+            }
+        }
+    }
+}
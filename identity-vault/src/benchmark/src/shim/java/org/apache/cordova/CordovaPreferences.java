@@ -0,0 +1,30 @@
+package org.apache.cordova;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/*
+    config.xml preferences, set directly by the benchmarks.
+ */
+public class CordovaPreferences {
+    private final HashMap<String, String> mPrefs = new HashMap<>();
+
+    public void set(String name, String value) {
+        mPrefs.put(name.toLowerCase(Locale.ENGLISH), value);
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public int getInteger(String name, int defaultValue) {
+        String value = mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value == null ? defaultValue : Integer.decode(value);
+    }
+
+    public String getString(String name, String defaultValue) {
+        String value = mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value == null ? defaultValue : value;
+    }
+}
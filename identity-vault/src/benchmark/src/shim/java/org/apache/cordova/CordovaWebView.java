@@ -0,0 +1,9 @@
+package org.apache.cordova;
+
+/*
+    The part of the Cordova WebView the plugin talks to, results are handed to whoever is listening.
+ */
+public interface CordovaWebView {
+
+    void sendPluginResult(PluginResult result, String callbackId);
+}
@@ -0,0 +1,90 @@
+package com.ionicframework.auth;
+
+import android.content.SharedPreferences;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+import com.bottlerocketstudios.vault.keys.storage.KeyStorage;
+import com.bottlerocketstudios.vault.keys.storage.MemoryOnlyKeyStorage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GcmPreferenceVaultStorageTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SharedPreferences mPreferences;
+    private KeyStorage mKeyStorage;
+    private GcmPreferenceVaultStorage mStorage;
+
+    @Before
+    public void setUp() {
+        mPreferences = new BenchmarkSharedPreferences(new File(mFolder.getRoot(), "vault.xml"));
+        mKeyStorage = new MemoryOnlyKeyStorage();
+        mKeyStorage.saveKey(null, Aes256RandomKeyFactory.createKey());
+        mStorage = new GcmPreferenceVaultStorage(mPreferences, mPreferences, null, mKeyStorage);
+    }
+
+    private void assertRejected(String name) {
+        try {
+            mStorage.getBytes(name);
+            fail("read a record that doesn't belong under " + name);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void recordsRoundTrip() {
+        byte[] bytes = {0, 1, 2, (byte) 0xff};
+        mStorage.edit().putString("a", "héllo").putBytes("b", bytes).commit();
+
+        assertEquals("héllo", mStorage.getString("a"));
+        assertArrayEquals(bytes, mStorage.getBytes("b"));
+        assertTrue(mPreferences.getString("a", null).startsWith("~"));
+
+        mStorage.edit().remove("a").commit();
+        assertNull(mStorage.getString("a"));
+    }
+
+    @Test
+    public void recordsMovedToAnotherNameAreRejected() {
+        mStorage.edit().putString("a", "first").putString("b", "second").commit();
+
+        mPreferences.edit().putString("b", mPreferences.getString("a", null)).commit();
+
+        assertRejected("b");
+        assertEquals("first", mStorage.getString("a"));
+    }
+
+    @Test
+    public void tamperedRecordsAreRejected() {
+        mStorage.edit().putString("a", "value").commit();
+        byte[] record = Base64.getDecoder().decode(mPreferences.getString("a", null).substring(1));
+        record[record.length - 1] ^= 1;
+
+        mPreferences.edit().putString("a", "~" + Base64.getEncoder().encodeToString(record)).commit();
+
+        assertRejected("a");
+    }
+
+    @Test
+    public void recordsUnderAnotherKeyAreRejected() {
+        mStorage.edit().putString("a", "value").commit();
+
+        mKeyStorage.saveKey(null, Aes256RandomKeyFactory.createKey());
+
+        assertRejected("a");
+    }
+}
@@ -0,0 +1,164 @@
+package com.ionicframework.auth;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+import com.bottlerocketstudios.vault.keys.storage.KeyStorage;
+import com.bottlerocketstudios.vault.keys.storage.MemoryOnlyKeyStorage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogFileVaultStorageTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private KeyStorage mKeyStorage;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "vault/records.log");
+        mKeyStorage = new MemoryOnlyKeyStorage();
+        mKeyStorage.saveKey(null, Aes256RandomKeyFactory.createKey());
+    }
+
+    private LogFileVaultStorage open() {
+        return new LogFileVaultStorage(null, mFile, mKeyStorage);
+    }
+
+    @Test
+    public void recordsRoundTripAcrossReopening() {
+        byte[] bytes = {0, 1, 2, (byte) 0xff};
+        LogFileVaultStorage storage = open();
+        storage.edit().putString("a", "first").putBytes("b", bytes).putString("c", "gone").commit();
+        storage.edit().putString("a", "second").remove("c").commit();
+
+        assertEquals("second", storage.getString("a"));
+        assertFalse(storage.contains("c"));
+
+        LogFileVaultStorage reopened = open();
+        assertEquals("second", reopened.getString("a"));
+        assertArrayEquals(bytes, reopened.getBytes("b"));
+        assertNull(reopened.getString("c"));
+        assertNull(reopened.getBytes("missing"));
+    }
+
+    @Test
+    public void stringsReadBackAsBytes() {
+        LogFileVaultStorage storage = open();
+        storage.edit().putString("a", "héllo").apply();
+
+        assertArrayEquals("héllo".getBytes(StandardCharsets.UTF_8), open().getBytes("a"));
+    }
+
+    @Test
+    public void recordsUnderAnotherKeyAreRejected() {
+        open().edit().putString("a", "value").commit();
+
+        mKeyStorage.saveKey(null, Aes256RandomKeyFactory.createKey());
+        try {
+            open().getString("a");
+            fail("read a record written under another key");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void tornFrameIsDropped() throws Throwable {
+        open().edit().putString("a", "kept").commit();
+        long size = mFile.length();
+        // a frame header promising more body than made it to the disk
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(size);
+            file.write(new byte[]{0, 0, 1, 0, 1, 2, 3, 4, 5, 6});
+        }
+
+        LogFileVaultStorage reopened = open();
+        assertEquals("kept", reopened.getString("a"));
+        assertEquals(size, mFile.length());
+
+        reopened.edit().putString("b", "after").commit();
+        assertEquals("after", open().getString("b"));
+    }
+
+    @Test
+    public void frameFailingItsChecksumIsDropped() throws Throwable {
+        LogFileVaultStorage storage = open();
+        storage.edit().putString("a", "kept").commit();
+        long size = mFile.length();
+        storage.edit().putString("a", "lost").putString("b", "lost").commit();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+
+        LogFileVaultStorage reopened = open();
+        assertEquals("kept", reopened.getString("a"));
+        assertFalse(reopened.contains("b"));
+        assertEquals(size, mFile.length());
+    }
+
+    @Test
+    public void truncatedFileKeepsCompleteFrames() throws Throwable {
+        LogFileVaultStorage storage = open();
+        storage.edit().putString("a", "kept").commit();
+        long size = mFile.length();
+        storage.edit().putString("b", "cut off").commit();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        LogFileVaultStorage reopened = open();
+        assertEquals("kept", reopened.getString("a"));
+        assertFalse(reopened.contains("b"));
+        assertEquals(size, mFile.length());
+    }
+
+    @Test
+    public void supersededRecordsAreCompacted() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            value.append('x');
+        }
+        LogFileVaultStorage storage = open();
+        storage.edit().putString("other", "value").commit();
+        // about 200KB appended in total, all but the last value superseded
+        for (int i = 0; i < 200; i++) {
+            storage.edit().putString("a", value.toString() + i).commit();
+        }
+
+        assertTrue("log not compacted, " + mFile.length(), mFile.length() < 64 * 1024);
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        assertEquals(value.toString() + 199, storage.getString("a"));
+
+        LogFileVaultStorage reopened = open();
+        assertEquals(value.toString() + 199, reopened.getString("a"));
+        assertEquals("value", reopened.getString("other"));
+    }
+
+    @Test
+    public void clearDeletesTheLog() {
+        LogFileVaultStorage storage = open();
+        storage.edit().putString("a", "value").commit();
+
+        storage.clear();
+
+        assertFalse(mFile.exists());
+        assertNull(storage.getString("a"));
+    }
+}
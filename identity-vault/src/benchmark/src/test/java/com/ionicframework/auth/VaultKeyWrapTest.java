@@ -0,0 +1,53 @@
+package com.ionicframework.auth;
+
+import com.bottlerocketstudios.vault.keys.generator.Aes256RandomKeyFactory;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class VaultKeyWrapTest {
+    private final SecretKey mWrappingKey = Aes256RandomKeyFactory.createKey();
+    private final SecretKey mDataKey = Aes256RandomKeyFactory.createKey();
+
+    @Test
+    public void wrappedKeyUnwraps() throws VaultError {
+        byte[] wrapped = VaultKeyWrap.wrap(mWrappingKey, mDataKey, "vault");
+
+        assertArrayEquals(mDataKey.getEncoded(), VaultKeyWrap.unwrap(mWrappingKey, wrapped, "vault").getEncoded());
+    }
+
+    @Test
+    public void wrapsAreRandomized() throws VaultError {
+        assertFalse(Arrays.equals(VaultKeyWrap.wrap(mWrappingKey, mDataKey, "vault"), VaultKeyWrap.wrap(mWrappingKey, mDataKey, "vault")));
+    }
+
+    @Test
+    public void otherKeysAndVaultsDontUnwrap() throws VaultError {
+        byte[] wrapped = VaultKeyWrap.wrap(mWrappingKey, mDataKey, "vault");
+
+        assertNull(VaultKeyWrap.unwrap(Aes256RandomKeyFactory.createKey(), wrapped, "vault"));
+        assertNull(VaultKeyWrap.unwrap(mWrappingKey, wrapped, "other vault"));
+    }
+
+    @Test
+    public void damagedWrapsDontUnwrap() throws VaultError {
+        byte[] wrapped = VaultKeyWrap.wrap(mWrappingKey, mDataKey, "vault");
+
+        byte[] tampered = wrapped.clone();
+        tampered[tampered.length - 1] ^= 1;
+        assertNull(VaultKeyWrap.unwrap(mWrappingKey, tampered, "vault"));
+
+        byte[] otherVersion = wrapped.clone();
+        otherVersion[0] = 2;
+        assertNull(VaultKeyWrap.unwrap(mWrappingKey, otherVersion, "vault"));
+
+        assertNull(VaultKeyWrap.unwrap(mWrappingKey, Arrays.copyOf(wrapped, 20), "vault"));
+    }
+}
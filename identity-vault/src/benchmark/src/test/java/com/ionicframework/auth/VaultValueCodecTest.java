@@ -0,0 +1,76 @@
+package com.ionicframework.auth;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VaultValueCodecTest {
+
+    private static Object roundTrip(Object value) throws VaultError {
+        return VaultValueCodec.decode(VaultValueCodec.encode(value));
+    }
+
+    @Test
+    public void scalarsKeepTheirType() throws VaultError {
+        assertEquals("value", roundTrip("value"));
+        assertEquals("", roundTrip(""));
+        assertEquals("é中😀", roundTrip("é中😀"));
+        assertEquals(42, roundTrip(42));
+        assertEquals(-1, roundTrip(-1));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals(1.5f, roundTrip(1.5f));
+        assertEquals(0.1, roundTrip(0.1));
+        assertEquals(true, roundTrip(true));
+        assertEquals(false, roundTrip(false));
+        assertEquals(JSONObject.NULL, roundTrip(null));
+        assertEquals(JSONObject.NULL, roundTrip(JSONObject.NULL));
+    }
+
+    @Test
+    public void containersRoundTrip() throws Throwable {
+        JSONObject value = new JSONObject()
+                .put("name", "vault")
+                .put("count", 3)
+                .put("big", 1L << 40)
+                .put("nested", new JSONObject().put("list", new JSONArray().put(1).put("two").put(false)))
+                .put("empty", new JSONArray());
+
+        Object decoded = roundTrip(value);
+
+        assertTrue(decoded instanceof JSONObject);
+        JSONObject object = (JSONObject) decoded;
+        assertEquals(value.toString(), object.toString());
+        assertEquals(3, object.get("count"));
+        assertEquals(1L << 40, object.get("big"));
+        assertTrue(object.getJSONObject("nested").get("list") instanceof JSONArray);
+    }
+
+    @Test
+    public void truncatedRecordsAreUnreadable() throws Throwable {
+        byte[] record = VaultValueCodec.encode(new JSONObject()
+                .put("key", "a longer string value")
+                .put("list", new JSONArray().put(1).put(2L).put(3.0)));
+
+        for (int length = 1; length < record.length; length++) {
+            assertNull("cut to " + length, VaultValueCodec.decode(Arrays.copyOf(record, length)));
+        }
+    }
+
+    @Test
+    public void trailingBytesAndUnknownVersionsAreUnreadable() throws VaultError {
+        byte[] record = VaultValueCodec.encode("value");
+        assertNull(VaultValueCodec.decode(Arrays.copyOf(record, record.length + 1)));
+
+        record[0] = 99;
+        assertNull(VaultValueCodec.decode(record));
+        assertNull(VaultValueCodec.decode(new byte[0]));
+        assertNull(VaultValueCodec.decode(null));
+    }
+}
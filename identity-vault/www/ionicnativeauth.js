@@ -19,6 +19,11 @@ var IonicNativeAuth = {
     }, PLUGIN_NAME, 'setup', [options]);
     return instance;
   },
+  getMetrics: function(reset) {
+    return new Promise(function(resolve, reject) {
+      exec(resolve, reject, PLUGIN_NAME, 'getMetrics', [!!reset]);
+    });
+  },
 };
 
 
@@ -28,6 +33,55 @@ function unwrapData(key, resolve) {
   }
 }
 
+var STREAM_TYPES = ['blob', 'string', 'json'];
+
+// a stream header is exactly {__ivStream: {type, size}}, a value result for a key of that name
+// doesn't have this shape
+function getStreamHeader(data) {
+  if (!data || typeof data !== 'object' || data instanceof ArrayBuffer) {
+    return null;
+  }
+  var keys = Object.keys(data);
+  var header = data.__ivStream;
+  if (keys.length !== 1 || keys[0] !== '__ivStream' || !header || typeof header !== 'object') {
+    return null;
+  }
+  var headerKeys = Object.keys(header);
+  if (headerKeys.length !== 2 || STREAM_TYPES.indexOf(header.type) === -1
+      || typeof header.size !== 'number' || header.size % 1 !== 0 || header.size < 0) {
+    return null;
+  }
+  return header;
+}
+
+// large results arrive as a {__ivStream: {type, size}} header, ArrayBuffer chunks and a final empty
+// result, anything else is handed to onResult as it is
+function readStream(onResult, resolve) {
+  var stream = null;
+  return function(data) {
+    if (stream === null) {
+      var header = getStreamHeader(data);
+      if (header) {
+        stream = { type: header.type, bytes: new Uint8Array(header.size), offset: 0 };
+      } else {
+        onResult(data);
+      }
+      return;
+    }
+    if (data instanceof ArrayBuffer) {
+      stream.bytes.set(new Uint8Array(data), stream.offset);
+      stream.offset += data.byteLength;
+      return;
+    }
+    if (stream.type === 'blob') {
+      resolve(stream.bytes.buffer);
+      return;
+    }
+    var text = new TextDecoder('utf-8').decode(stream.bytes);
+    resolve(stream.type === 'json' ? JSON.parse(text) : text);
+  }
+}
+
 function AuthVault(options) {
   return {
     onLock: options.onLock,
@@ -101,7 +155,7 @@ function AuthVault(options) {
       var descriptor = this.descriptor
       return this._setupPromise.then(function() {
         return new Promise(function(resolve, reject) {
-          exec(unwrapData('token', resolve), reject, PLUGIN_NAME, 'getValue', [descriptor, 'token']);
+          exec(readStream(unwrapData('token', resolve), resolve), reject, PLUGIN_NAME, 'getValue', [descriptor, 'token']);
         });
       });
     },
@@ -117,7 +171,15 @@ function AuthVault(options) {
       var descriptor = this.descriptor
       return this._setupPromise.then(function() {
         return new Promise(function(resolve, reject) {
-          exec(unwrapData(key, resolve), reject, PLUGIN_NAME, 'getValue', [descriptor, key]);
+          exec(readStream(unwrapData(key, resolve), resolve), reject, PLUGIN_NAME, 'getValue', [descriptor, key]);
+        });
+      });
+    },
+    getValues: function(keys) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'getValues', [descriptor, keys]);
         });
       });
     },
@@ -129,6 +191,22 @@ function AuthVault(options) {
         });
       });
     },
+    getKeysWithPrefix: function(prefix) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'getKeysWithPrefix', [descriptor, prefix]);
+        });
+      });
+    },
+    getValuesWithPrefix: function(prefix) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'getValuesWithPrefix', [descriptor, prefix]);
+        });
+      });
+    },
     storeValue: function(key, value) {
       var descriptor = this.descriptor
       return this._setupPromise.then(function() {
@@ -137,6 +215,14 @@ function AuthVault(options) {
         });
       });
     },
+    storeValues: function(values) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'storeValues', [descriptor, values]);
+        });
+      });
+    },
     removeValue: function(key) {
       var descriptor = this.descriptor
       return this._setupPromise.then(function() {
@@ -145,6 +231,50 @@ function AuthVault(options) {
         });
       });
     },
+    removeValues: function(keys) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'removeValues', [descriptor, keys]);
+        });
+      });
+    },
+    removeValuesWithPrefix: function(prefix) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'removeValuesWithPrefix', [descriptor, prefix]);
+        });
+      });
+    },
+    getBlob: function(key) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(readStream(resolve, resolve), reject, PLUGIN_NAME, 'getBlob', [descriptor, key]);
+        });
+      });
+    },
+    storeBlob: function(key, data) {
+      var descriptor = this.descriptor
+      // only ArrayBuffers cross the bridge as binary, copy out the bytes of typed arrays and views
+      if (ArrayBuffer.isView(data)) {
+        data = data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+      }
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'storeBlob', [descriptor, key, data]);
+        });
+      });
+    },
+    removeBlob: function(key) {
+      var descriptor = this.descriptor
+      return this._setupPromise.then(function() {
+        return new Promise(function(resolve, reject) {
+          exec(resolve, reject, PLUGIN_NAME, 'removeBlob', [descriptor, key]);
+        });
+      });
+    },
     getUsername: function() {
       var descriptor = this.descriptor
       return this._setupPromise.then(function() {